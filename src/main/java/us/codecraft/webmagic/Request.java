@@ -20,6 +20,16 @@ public class Request implements Serializable {
     private static final long serialVersionUID = 2062192774891352043L;
 
     public static final String CYCLE_TRIED_TIMES = "_cycle_tried_times";
+    /**
+     * Time in ms the request is pushed to scheduler, only put when ages are recorded by {@link us.codecraft.webmagic.scheduler.TelemetryRecorder}.
+     * @since 0.5.3
+     */
+    public static final String PUSH_TIME = "_push_time";
+    /**
+     * Id of the request in the log of {@link us.codecraft.webmagic.scheduler.WalQueueScheduler}.
+     * @since 0.5.3
+     */
+    public static final String WAL_ID = "_wal_id";
     public static final String STATUS_CODE = "statusCode";
     //public static final String RESPONSE_STATUS_CODE = "responseStatusCode";
     public static final String STATUSFUL_CONN_CODE = "statusfulConnCode";
@@ -28,6 +38,22 @@ public class Request implements Serializable {
     public static final String BIZCODE = "bizcode";
     public static final String MATCH_ERR_MSG = "matchErrMsg";
     public static final String HOST = "Host";
+    /**
+     * Mark of a request which continues a request chain, it holds the proxy and statusful connection of the chain.
+     * @since 0.5.3
+     */
+    public static final String CHAIN_CONTINUATION = "_chain_continuation";
+    /**
+     * Time in ms before which the request should not be polled.<br>
+     * Only honored by {@link us.codecraft.webmagic.scheduler.DelayQueueScheduler}, other schedulers poll the request at once.
+     * @since 0.5.3
+     */
+    public static final String NOT_BEFORE = "_not_before";
+    /**
+     * Count of cycle retries delayed by backoff.
+     * @since 0.5.3
+     */
+    public static final String BACKOFF_TRIED_TIMES = "_backoff_tried_times";
     
     public static final int ERROR_ILLEGAL_REQUEST_URI = 10004;
 
@@ -174,7 +200,34 @@ public class Request implements Serializable {
 		putExtra(PROXY, proxy);
 	}
 	
+	/**
+	 * Whether this request is the next request of a chain resubmitted to scheduler.
+	 * @return true if it continues a request chain
+	 * @since 0.5.3
+	 */
+	public boolean isChainContinuation(){
+		return getExtra(CHAIN_CONTINUATION) != null;
+	}
+	
+	/**
+	 * Get the time before which the request should not be polled.
+	 * @return time in ms, 0 if the request is ready at once
+	 * @since 0.5.3
+	 */
+	public long getNotBefore(){
+		Object notBefore = getExtra(NOT_BEFORE);
+		return notBefore == null ? 0 : ((Number) notBefore).longValue();
+	}
+	
+	public Request setNotBefore(long notBefore){
+		putExtra(NOT_BEFORE, notBefore);
+		return this;
+	}
+	
 	public void clean(){
+		if(this.extras == null){
+			return;
+		}
 		this.extras.remove(PROXY);
 		this.extras.remove(STATUSFUL_CONN);
 	}
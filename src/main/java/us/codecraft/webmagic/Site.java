@@ -48,6 +48,10 @@ public class Site {
 
     private int cycleRetryTimes = 0;//默认值为0代表无限重试，直到网页能抓到正确内容为止
 
+    private int cycleRetryBackoff = 0;
+
+    private int maxCycleRetryBackoff = 60000;
+
     private int timeOut = 5000;
 
     private static final Set<Integer> DEFAULT_STATUS_CODE_SET = new HashSet<Integer>();
@@ -298,6 +302,8 @@ public class Site {
     /**
      * Set the interval between the processing of two pages.<br>
      * Time unit is micro seconds.<br>
+     * With {@link us.codecraft.webmagic.scheduler.PoliteScheduler} it is the interval between the end of a page
+     * and the start of the next page of the same host.<br>
      *
      * @param sleepTime
      * @return this
@@ -372,6 +378,33 @@ public class Site {
         return this;
     }
 
+    /**
+     * Get the delay before the first cycle retry, 0 by default for retrying at once.<br>
+     *
+     * @return delay in ms
+     */
+    public int getCycleRetryBackoff() {
+        return cycleRetryBackoff;
+    }
+
+    public int getMaxCycleRetryBackoff() {
+        return maxCycleRetryBackoff;
+    }
+
+    /**
+     * Set exponential backoff of cycle retry, the delay doubles with each try until maxCycleRetryBackoff. <br>
+     * Only work in {@link us.codecraft.webmagic.scheduler.DelayQueueScheduler}, other schedulers retry at once.
+     *
+     * @param cycleRetryBackoff delay before the first cycle retry in ms
+     * @param maxCycleRetryBackoff max delay in ms
+     * @return this
+     */
+    public Site setCycleRetryBackoff(int cycleRetryBackoff, int maxCycleRetryBackoff) {
+        this.cycleRetryBackoff = cycleRetryBackoff;
+        this.maxCycleRetryBackoff = maxCycleRetryBackoff;
+        return this;
+    }
+
     public HttpHost getHttpProxy() {
         return httpProxy;
     }
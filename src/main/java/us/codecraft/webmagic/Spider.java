@@ -1,11 +1,15 @@
 package us.codecraft.webmagic;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
@@ -14,25 +18,42 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.http.HttpResponse;
 import org.slf4j.LoggerFactory;
 
+import us.codecraft.webmagic.downloader.AsyncDownloader;
+import us.codecraft.webmagic.downloader.DownloadCallback;
 import us.codecraft.webmagic.downloader.Downloader;
 import us.codecraft.webmagic.downloader.HttpClientDownloader;
 import us.codecraft.webmagic.exception.PageProcessException;
 import us.codecraft.webmagic.pipeline.CollectorPipeline;
 import us.codecraft.webmagic.pipeline.Pipeline;
 import us.codecraft.webmagic.pipeline.ResultItemsCollectorPipeline;
+import us.codecraft.webmagic.pipeline.StreamingCollectorPipeline;
 import us.codecraft.webmagic.processor.PageProcessor;
 import us.codecraft.webmagic.proxy.Proxy;
+import us.codecraft.webmagic.scheduler.AckScheduler;
+import us.codecraft.webmagic.scheduler.BatchScheduler;
+import us.codecraft.webmagic.scheduler.BlockingScheduler;
+import us.codecraft.webmagic.scheduler.DelayAwareScheduler;
+import us.codecraft.webmagic.scheduler.DelayQueueScheduler;
+import us.codecraft.webmagic.scheduler.DrainableScheduler;
+import us.codecraft.webmagic.scheduler.DuplicateRemovedScheduler;
+import us.codecraft.webmagic.scheduler.MonitorableScheduler;
+import us.codecraft.webmagic.scheduler.PoliteScheduler;
 import us.codecraft.webmagic.scheduler.QueueScheduler;
+import us.codecraft.webmagic.scheduler.SchedulerSnapshot;
 import us.codecraft.webmagic.scheduler.Scheduler;
+import us.codecraft.webmagic.scheduler.component.ContentDuplicateRemover;
 import us.codecraft.webmagic.statusful.StatusfulConnection;
+import us.codecraft.webmagic.thread.AimdConcurrencyLimit;
 import us.codecraft.webmagic.thread.CountableThreadPool;
+import us.codecraft.webmagic.thread.InFlightCounter;
+import us.codecraft.webmagic.thread.SharedCrawlRuntime;
+import us.codecraft.webmagic.thread.StageThreadPool;
 import us.codecraft.webmagic.utils.LoggerUtil;
 import us.codecraft.webmagic.utils.UrlUtils;
 
@@ -81,7 +102,7 @@ public class Spider implements Runnable, Task, Cloneable{
 
     protected Site site;
 
-    protected QueueScheduler scheduler;
+    protected Scheduler scheduler;
 
     protected CountableThreadPool threadPool;
 
@@ -89,9 +110,31 @@ public class Spider implements Runnable, Task, Cloneable{
 
     protected int threadNum = 1;
 
+    protected int asyncMaxInFlight = 0;
+
+    protected AimdConcurrencyLimit concurrencyLimit;
+
+    protected SharedCrawlRuntime runtime;
+
+    protected int runtimeWeight = 1;
+
+    protected int runtimeQuota = 0;
+
+    protected boolean chainContinuation = false;
+
+    protected ContentDuplicateRemover contentDuplicateRemover;
+
+    protected boolean followDuplicateContent = false;
+
+    protected StageThreadPool downloadStage;
+
+    protected StageThreadPool processStage;
+
+    protected StageThreadPool pipelineStage;
+
     protected AtomicInteger stat = new AtomicInteger(STAT_INIT);;
 
-    protected boolean exitWhenComplete = true;
+    protected volatile boolean exitWhenComplete = true;
 
     protected final static int STAT_INIT = 0;
 
@@ -103,9 +146,14 @@ public class Spider implements Runnable, Task, Cloneable{
 
     protected boolean destroyWhenExit = true;
 
-    private ReentrantLock newUrlLock = new ReentrantLock();
+    private InFlightCounter inFlightCounter = new InFlightCounter();
 
-    private Condition newUrlCondition = newUrlLock.newCondition();
+    /**
+     * checkpoint进行中时推迟关闭scheduler,由checkpoint结束后关闭
+     */
+    private boolean checkpointing = false;
+
+    private boolean schedulerCloseDeferred = false;
 
     private List<SpiderListener> spiderListeners;
 
@@ -184,7 +232,7 @@ public class Spider implements Runnable, Task, Cloneable{
      * @Deprecated
      * @see #setScheduler(us.codecraft.webmagic.scheduler.Scheduler)
      */
-    public Spider scheduler(QueueScheduler scheduler) {
+    public Spider scheduler(Scheduler scheduler) {
         return setScheduler(scheduler);
     }
 
@@ -196,11 +244,19 @@ public class Spider implements Runnable, Task, Cloneable{
      * @see Scheduler
      * @since 0.2.1
      */
-    public Spider setScheduler(QueueScheduler scheduler) {
+    public Spider setScheduler(Scheduler scheduler) {
         checkIfRunning();
         Scheduler oldScheduler = this.scheduler;
         this.scheduler = scheduler;
-        if (oldScheduler != null) {
+        if (oldScheduler instanceof DrainableScheduler) {
+            //按host限速的scheduler在ack之前不会再返回同一host的request,溢出到磁盘的request分批取出
+            List<Request> requests;
+            while (!(requests = ((DrainableScheduler) oldScheduler).drain(this, DrainableScheduler.DRAIN_SIZE)).isEmpty()) {
+                for (Request request : requests) {
+                    this.scheduler.push(request, this);
+                }
+            }
+        } else if (oldScheduler != null) {
             Request request;
             while ((request = oldScheduler.poll(this)) != null) {
                 this.scheduler.push(request, this);
@@ -262,9 +318,143 @@ public class Spider implements Runnable, Task, Cloneable{
     public Spider setDownloader(Downloader downloader) {
         checkIfRunning();
         this.downloader = downloader;
+        this.asyncMaxInFlight = 0;
+        return this;
+    }
+
+    /**
+     * Run in a runtime shared with other spiders.<br>
+     * The worker pool and the connection pool of runtime are used instead of the ones of this spider,
+     * and this spider gets slots by weight when it is running, registered by {@link #getUUID()}.
+     * A random uuid is set if none is set.
+     *
+     * @param runtime
+     * @param weight weight of this spider for sharing slots
+     * @return this
+     * @see SharedCrawlRuntime
+     * @since 0.5.3
+     */
+    public Spider setRuntime(SharedCrawlRuntime runtime, int weight) {
+        return setRuntime(runtime, weight, 0);
+    }
+
+    /**
+     * Run in a runtime shared with other spiders, using at most quota slots even if other spiders are idle.
+     *
+     * @param runtime
+     * @param weight weight of this spider for sharing slots
+     * @param quota max slots of this spider, 0 for all threads of runtime
+     * @return this
+     * @see #setRuntime(SharedCrawlRuntime, int)
+     * @since 0.5.3
+     */
+    public Spider setRuntime(SharedCrawlRuntime runtime, int weight, int quota) {
+        checkIfRunning();
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight should be more than one!");
+        }
+        if (quota < 0) {
+            throw new IllegalArgumentException("quota should not be negative!");
+        }
+        this.runtime = runtime;
+        this.runtimeWeight = weight;
+        this.runtimeQuota = quota;
+        this.downloader = runtime.getDownloader();
+        this.asyncMaxInFlight = 0;
+        //共享runtime时不使用分阶段线程池
+        shutdownStages();
+        downloadStage = null;
+        processStage = null;
+        pipelineStage = null;
         return this;
     }
+
+    public SharedCrawlRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * Resubmit the next request of a request chain to scheduler instead of downloading it on the same thread.<br>
+     * The thread is freed between steps of a chain, so that a small pool keeps many chains in progress.
+     * The proxy and statusful connection are passed along with the next request and released when the chain ends,
+     * so a scheduler keeping requests in memory is needed.
+     *
+     * @param chainContinuation true to resubmit next requests to scheduler
+     * @return this
+     * @see Request#getNextRequest()
+     * @since 0.5.3
+     */
+    public Spider setChainContinuation(boolean chainContinuation) {
+        checkIfRunning();
+        this.chainContinuation = chainContinuation;
+        return this;
+    }
+
+    public boolean isChainContinuation() {
+        return chainContinuation;
+    }
+
+    /**
+     * Check content of downloaded pages, a page duplicate of one processed before skips PageProcessor and pipelines.<br>
+     * Links of a duplicate page are only extracted when {@link #setFollowDuplicateContent(boolean)} is true,
+     * and the next request of its request chain still goes on.
+     *
+     * @param contentDuplicateRemover content duplicate remover
+     * @return this
+     * @see us.codecraft.webmagic.scheduler.component.SimHashContentDuplicateRemover
+     * @since 0.5.3
+     */
+    public Spider setContentDuplicateRemover(ContentDuplicateRemover contentDuplicateRemover) {
+        checkIfRunning();
+        this.contentDuplicateRemover = contentDuplicateRemover;
+        return this;
+    }
+
+    public ContentDuplicateRemover getContentDuplicateRemover() {
+        return contentDuplicateRemover;
+    }
+
+    /**
+     * Whether a page of duplicate content is still processed for its links, false by default.<br>
+     * When false it skips PageProcessor to save parsing, and links only found in it are lost.
+     * When true only its items skip pipelines.
+     *
+     * @param followDuplicateContent
+     * @return this
+     * @since 0.5.3
+     */
+    public Spider setFollowDuplicateContent(boolean followDuplicateContent) {
+        checkIfRunning();
+        this.followDuplicateContent = followDuplicateContent;
+        return this;
+    }
+
+    public boolean isFollowDuplicateContent() {
+        return followDuplicateContent;
+    }
     
+    /**
+     * set an async downloader for spider.<br>
+     * Up to maxInFlight requests are downloaded without holding any thread,
+     * and downloaded pages are processed by the threads set by {@link #thread(int)}.
+     *
+     * @param downloader
+     * @param maxInFlight max requests downloading or processing at the same time
+     * @return this
+     * @see AsyncDownloader
+     * @since 0.5.3
+     */
+    public Spider setAsyncDownloader(AsyncDownloader downloader, int maxInFlight) {
+        checkIfRunning();
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight should be more than one!");
+        }
+        this.downloader = downloader;
+        this.asyncMaxInFlight = maxInFlight;
+        downloader.setThread(maxInFlight);
+        return this;
+    }
+
     public Spider setPageProcessor(PageProcessor pageProcessor){
     	checkIfRunning();
     	this.pageProcessor = pageProcessor;
@@ -284,19 +474,47 @@ public class Spider implements Runnable, Task, Cloneable{
         if(stat == null){
         	stat = new AtomicInteger(STAT_INIT);
         }
-        if(newUrlLock == null){
-        	newUrlLock = new ReentrantLock();
-            newUrlCondition = newUrlLock.newCondition();
+        if(inFlightCounter == null){
+        	inFlightCounter = new InFlightCounter();
         }
         if(pageCount == null){
         	pageCount = new AtomicLong(0);
         }
+        if (site != null && site.getCycleRetryBackoff() > 0 && !(scheduler instanceof DelayQueueScheduler)) {
+        	LoggerUtil.warn(uuid, "cycle retry backoff only works in DelayQueueScheduler, " + scheduler.getClass().getSimpleName() + " retries at once");
+        }
+        if (asyncMaxInFlight > 0 && site != null && site.getSleepTime() > 0 && !(scheduler instanceof PoliteScheduler)) {
+        	LoggerUtil.warn(uuid, "sleep time is not applied with async downloader, use a PoliteScheduler to keep the delay of hosts");
+        }
         if (startRequests != null) {
-            for (Request request : startRequests) {
-                scheduler.push(request, this);
-            }
+        	if (scheduler instanceof BlockingScheduler) {
+        		//run线程是唯一poll的线程,不能被阻塞
+        		((BlockingScheduler) scheduler).pushAllWithoutBlocking(startRequests, this);
+        	} else {
+        		for (Request request : startRequests) {
+        			scheduler.push(request, this);
+        		}
+        	}
             startRequests.clear();
         }
+        if (asyncMaxInFlight > 0 && executorService != null) {
+            //异步下载时线程池计数的是下载中和处理中的request,处理页面的线程数仍为threadNum
+            threadPool = new CountableThreadPool(asyncMaxInFlight, executorService);
+            downloader.setThread(asyncMaxInFlight);
+        }
+        if (runtime != null) {
+            //共享runtime时每次运行作为一个tenant注册,运行结束时注销
+            if (uuid == null) {
+                uuid = UUID.randomUUID().toString();
+            }
+            threadPool = runtime.register(uuid, runtimeWeight, runtimeQuota > 0 ? runtimeQuota : runtime.getThreadNum());
+        }
+        if (concurrencyLimit != null && downloadStage != null) {
+            //分阶段时限制下载阶段的并发
+            downloadStage.setConcurrencyLimit(concurrencyLimit);
+        } else if (concurrencyLimit != null && threadPool != null) {
+            threadPool.setConcurrencyLimit(concurrencyLimit);
+        }
         startTime = new Date();
     }
 
@@ -306,39 +524,62 @@ public class Spider implements Runnable, Task, Cloneable{
         initComponent();
         LoggerUtil.info(uuid, "Spider " + getUUID() + " started!");
         while (!Thread.currentThread().isInterrupted() && stat.get() == STAT_RUNNING) {
+        	long version = inFlightCounter.getVersion();
         	Request request = scheduler.poll(this);
             if (request == null) {
-                if (threadPool.getThreadAlive() == 0) {
+                long pollDelay = getNextPollDelay();
+                if (inFlightCounter.get() == 0 && pollDelay < 0) {
                 	if(exitWhenComplete){
                 		break;
                 	}
                 }
-                waitNewUrl();
+                waitNewUrl(version, pollDelay);
+                continue;
+            }
+            inFlightCounter.increment();
+            if (downloadStage != null) {
+                processRequestStaged(request);
+            } else if (asyncMaxInFlight > 0) {
+                processRequestAsync(request);
             } else {
-                final Request requestFinal = request;
-                threadPool.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            processRequest(requestFinal);//处理请求
-                        } catch (Exception e) {
-                            onError(requestFinal);
-                            LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", requestFinal.getUrl()), e);
-                        } finally {
-                            pageCount.incrementAndGet();
-                            signalNewUrl();
-                        }
+                executeRequest(request);
+                //线程池有空闲线程时批量取出request
+                int idle = threadPool.getLimit() - threadPool.getThreadAlive();
+                if (idle > 0 && scheduler instanceof BatchScheduler) {
+                    for (Request batchRequest : ((BatchScheduler) scheduler).pollBatch(this, idle)) {
+                        inFlightCounter.increment();
+                        executeRequest(batchRequest);
                     }
-                });
+                }
             }
         }
         LoggerUtil.info(uuid,"spider中断...");
         stat.set(STAT_STOPPED);
+        if (runtime != null && threadPool != null) {
+            //不销毁时也注销tenant,以便再次运行
+            threadPool.shutdown();
+        }
         if (destroyWhenExit) {
             close();
         }
     }
 
+    private void executeRequest(final Request request) {
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processRequest(request);//处理请求
+                } catch (Exception e) {
+                    onError(request);
+                    LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", request.getUrl()), e);
+                } finally {
+                    onRequestComplete(request);
+                }
+            }
+        });
+    }
+
     protected void onError(Request request) {
         if (CollectionUtils.isNotEmpty(spiderListeners)) {
             for (SpiderListener spiderListener : spiderListeners) {
@@ -363,6 +604,14 @@ public class Spider implements Runnable, Task, Cloneable{
         }
     }
     
+    protected void onDuplicateContent(Request request){
+    	if (CollectionUtils.isNotEmpty(spiderListeners)) {
+            for (SpiderListener spiderListener : spiderListeners) {
+                spiderListener.onDuplicateContent(request);
+            }
+        }
+    }
+    
     protected void onMatchError(Request request){
     	if (CollectionUtils.isNotEmpty(spiderListeners)) {
             for (SpiderListener spiderListener : spiderListeners) {
@@ -389,10 +638,42 @@ public class Spider implements Runnable, Task, Cloneable{
         }
     	destroyEach(downloader);
 		destroyEach(pageProcessor);
-		threadPool.shutdown();
+		if (threadPool != null) {
+			threadPool.shutdown();
+		}
+		shutdownStages();
+		closeScheduler();
 		LoggerUtil.info(uuid, "Spider " + getUUID() + " closed!");
     }
 
+    /**
+     * 关闭scheduler及其DuplicateRemover的文件,checkpoint进行中时由checkpoint结束后关闭
+     */
+    private void closeScheduler() {
+    	synchronized (this) {
+    		if (checkpointing) {
+    			schedulerCloseDeferred = true;
+    			return;
+    		}
+    	}
+    	destroyEach(scheduler);
+    	if (scheduler instanceof DuplicateRemovedScheduler) {
+    		destroyEach(((DuplicateRemovedScheduler) scheduler).getDuplicateRemover());
+    	}
+    }
+
+    private void shutdownStages() {
+    	if (downloadStage != null) {
+    		downloadStage.shutdown();
+    	}
+    	if (processStage != null) {
+    		processStage.shutdown();
+    	}
+    	if (pipelineStage != null) {
+    		pipelineStage.shutdown();
+    	}
+    }
+
     private void destroyEach(Object object) {
         if (object instanceof Closeable) {
             try {
@@ -417,75 +698,339 @@ public class Spider implements Runnable, Task, Cloneable{
     	Request currentRequest = request;
     	try{
     		for(;;){
-        		Page page = downloader.download(currentRequest, this);
-        		if(page!=null && !page.isNeedCycleRetry()){
-        			//下载成功
-        			onSuccess(currentRequest);
+        		Page page = download(currentRequest);
+        		Request next = processPage(currentRequest, page);
+        		if(next == null){
+        			break;
         		}
-                if (page == null) {
-                	//下载失败
-                    onError(currentRequest);
-                    return;
-                }
-                if (page.isNeedCycleRetry()) {
-                	//需要重新下载
-                    extractAndAddRequests(page, true);
-                    return;
-                }
-                try {
-        			pageProcessor.process(page);
-        			//解析成功
-        			onMatchSuccess(currentRequest);
-        			extractAndAddRequests(page, spawnUrl);
-        			if (!page.getResultItems().isSkip()) {
-        	            for (Pipeline pipeline : pipelines) {
-        	                pipeline.process(page, this);
-        	            }
-        	        }
-        			
-        			Request next = currentRequest.getNextRequest();
-        			
-        			if(next == null){
-        				break;
-        			}else{
-        				if(site.getHttpProxyPool()!=null && site.getHttpProxyPool().isEnable()){
-            				Proxy proxy = currentRequest.getProxy();//拿到当前代理
-            				//取到request请求链的下一个request
-            				next.setProxy(proxy);//将同一代理传给下一个request
-        					currentRequest = next;
-                    	}else{
-                    		currentRequest = next;
-                    	}
-        			}
-        		} catch (PageProcessException e) {
-        			currentRequest.setMatchErrMsg(e.getMessage());
-        			//解析失败
-        			onMatchError(currentRequest);
-        			return;
+        		if(pushChainContinuation(next)){
+        			//代理和有状态连接随next传递,不释放
+        			currentRequest = null;
+        			break;
         		}
+        		currentRequest = next;
         	}
     	}finally{
-    		//释放资源
-    		if (site.getHttpProxyPool()!=null && site.getHttpProxyPool().isEnable()) {
+    		if(currentRequest != null){
+    			releaseRequest(currentRequest);
+    		}
+    	}
+    }
+
+    protected Page download(Request request) {
+    	long start = System.currentTimeMillis();
+    	Page page = downloader.download(request, this);
+    	onDownloaded(request, System.currentTimeMillis() - start);
+    	return page;
+    }
+
+    /**
+     * 下载完成后将耗时和状态码反馈给线程池的自适应并发限制
+     */
+    private void onDownloaded(Request request, long elapsed) {
+    	if (downloadStage != null) {
+    		downloadStage.onRequestComplete(elapsed, request.getStatusCode());
+    	} else if (threadPool != null) {
+    		threadPool.onRequestComplete(elapsed, request.getStatusCode());
+    	}
+    }
+
+    /**
+     * 处理下载完成的页面：解析、添加新的request、执行pipeline
+     * @param currentRequest
+     * @param page 下载结果,为null时表示下载失败
+     * @return 请求链中的下一个request,为null时请求链结束
+     */
+    protected Request processPage(Request currentRequest, Page page) {
+    	if(page!=null && !page.isNeedCycleRetry()){
+    		//下载成功
+    		onSuccess(currentRequest);
+    	}
+        if (page == null) {
+        	//下载失败
+            onError(currentRequest);
+            return null;
+        }
+        if (page.isNeedCycleRetry()) {
+        	//需要重新下载
+            extractAndAddRequests(page, true);
+            return null;
+        }
+        boolean duplicateContent = contentDuplicateRemover != null && contentDuplicateRemover.isDuplicate(page, this);
+        if (duplicateContent) {
+        	//内容重复,跳过解析和pipeline,followDuplicateContent时只解析链接
+        	LoggerUtil.debug(uuid, "content of " + currentRequest.getUrl() + " is duplicate");
+        	onDuplicateContent(currentRequest);
+        	if (!followDuplicateContent) {
+        		return getNextRequest(currentRequest);
+        	}
+        }
+        try {
+			pageProcessor.process(page);
+			//解析成功
+			onMatchSuccess(currentRequest);
+			if (duplicateContent) {
+				page.setSkip(true);
+			} else if (contentDuplicateRemover != null) {
+				//解析成功后才记住内容,解析失败的页面不会让重复页面被跳过
+				contentDuplicateRemover.remember(page, this);
+			}
+			extractAndAddRequests(page, spawnUrl);
+			if (pipelineStage != null) {
+				processPipelinesStaged(page);
+			} else {
+				processPipelines(page);
+			}
+			return getNextRequest(currentRequest);
+		} catch (PageProcessException e) {
+			currentRequest.setMatchErrMsg(e.getMessage());
+			//解析失败
+			onMatchError(currentRequest);
+			return null;
+		}
+    }
+
+    /**
+     * 取请求链的下一个request,并将当前的代理和有状态连接传给它
+     * @param currentRequest
+     * @return 请求链中的下一个request,为null时请求链结束
+     */
+    private Request getNextRequest(Request currentRequest) {
+		Request next = currentRequest.getNextRequest();
+		if(next != null && site.getHttpProxyPool()!=null && site.getHttpProxyPool().isEnable()){
+			Proxy proxy = currentRequest.getProxy();//拿到当前代理
+			//取到request请求链的下一个request
+			next.setProxy(proxy);//将同一代理传给下一个request
+		}
+		if(next != null && site.getConnectionPool()!=null && currentRequest.getStatusfulConn()!=null){
+			//将同一有状态连接传给下一个request
+			next.setStatusfulConn(currentRequest.getStatusfulConn());
+			next.putExtra(Request.STATUSFUL_CONN_CODE, currentRequest.getExtra(Request.STATUSFUL_CONN_CODE));
+		}
+		return next;
+    }
+
+    /**
+     * 开启请求链延续时,将请求链的下一个request交回scheduler,当前线程处理其他request
+     * @param next 请求链的下一个request
+     * @return true表示已交回scheduler
+     */
+    private boolean pushChainContinuation(Request next) {
+    	if (!chainContinuation) {
+    		return false;
+    	}
+    	next.putExtra(Request.CHAIN_CONTINUATION, Boolean.TRUE);
+    	addRequest(next);
+    	return true;
+    }
+
+    protected void processPipelines(Page page) {
+		if (!page.getResultItems().isSkip()) {
+            for (Pipeline pipeline : pipelines) {
+                pipeline.process(page, this);
+            }
+        }
+    }
+
+    /**
+     * 释放请求链最后一个request占用的代理IP和有状态连接
+     * @param currentRequest
+     */
+    protected void releaseRequest(Request currentRequest) {
+		//释放资源
+		if (site.getHttpProxyPool()!=null && site.getHttpProxyPool().isEnable()) {
+			try {
+    			int statusCode = (Integer) currentRequest.getExtra(Request.STATUS_CODE);
+            	Proxy proxy = currentRequest.getProxy();
+            	site.returnHttpProxyToPool(proxy, statusCode);
+			} catch (Exception e) {
+				LoggerFactory.getLogger(Spider.class).error(e.getMessage(),e);
+			}
+            currentRequest.clean();
+        }
+        if(site.getConnectionPool()!=null){
+        	int statusFulConnCode = (Integer) currentRequest.getExtra(Request.STATUSFUL_CONN_CODE);
+        	StatusfulConnection conn = currentRequest.getStatusfulConn();
+        	site.returnStatusfulConn(conn, statusFulConnCode);
+        }
+        //等待,按host限速的scheduler不需要工作线程等待,异步下载时不占用线程池的计数等待
+		if(!(scheduler instanceof PoliteScheduler) && asyncMaxInFlight <= 0 && (site.getHttpProxyPool()==null || !site.getHttpProxyPool().isEnable())){
+			sleep(site.getSleepTime());
+		}
+    }
+
+    /**
+     * 异步下载request,下载完成后在线程池中读取response并处理页面,io线程只负责交出response,
+     * 从下载开始到处理结束都占用线程池的一个计数
+     * @param request
+     */
+    protected void processRequestAsync(final Request request) {
+    	threadPool.acquire();
+    	final long start = System.currentTimeMillis();
+    	final AsyncDownloader asyncDownloader = (AsyncDownloader) downloader;
+    	try {
+    		asyncDownloader.download(request, this, new DownloadCallback() {
+    			@Override
+    			public void onComplete(final Request downloaded, final HttpResponse httpResponse) {
+    				final long elapsed = System.currentTimeMillis() - start;
+    				threadPool.executeAcquired(new Runnable() {
+    					@Override
+    					public void run() {
+    						try {
+    							Page page = asyncDownloader.buildPage(downloaded, Spider.this, httpResponse);
+    							onDownloaded(downloaded, elapsed);
+    							processDownloadedPage(downloaded, page);
+    						} catch (Exception e) {
+    							onError(downloaded);
+    							LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", downloaded.getUrl()), e);
+    						} finally {
+    							onRequestComplete(downloaded);
+    						}
+    					}
+    				});
+    			}
+
+    			@Override
+    			public void onFailed(final Request downloaded, final Page page) {
+    				onDownloaded(downloaded, System.currentTimeMillis() - start);
+    				threadPool.executeAcquired(new Runnable() {
+    					@Override
+    					public void run() {
+    						try {
+    							processDownloadedPage(downloaded, page);
+    						} catch (Exception e) {
+    							onError(downloaded);
+    							LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", downloaded.getUrl()), e);
+    						} finally {
+    							onRequestComplete(downloaded);
+    						}
+    					}
+    				});
+    			}
+    		});
+    	} catch (RuntimeException e) {
+    		threadPool.release();
+    		onError(request);
+    		LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", request.getUrl()), e);
+    		onRequestComplete(request);
+    	}
+    }
+
+    /**
+     * 分阶段处理request：下载线程池下载,处理线程池解析,pipeline线程池保存结果,
+     * 阶段之间的队列满时阻塞上一个阶段
+     * @param request
+     */
+    protected void processRequestStaged(Request request) {
+    	downloadStage.execute(newStagedDownloadTask(request, request));
+    }
+
+    /**
+     * @param polled 从scheduler取出的request,请求链结束时确认
+     * @param request 当前下载的request
+     */
+    private Runnable newStagedDownloadTask(final Request polled, final Request request) {
+    	return new Runnable() {
+    		@Override
+    		public void run() {
+    			final Page page;
     			try {
-	    			int statusCode = (Integer) currentRequest.getExtra(Request.STATUS_CODE);
-	            	Proxy proxy = currentRequest.getProxy();
-                	site.returnHttpProxyToPool(proxy, statusCode);
-				} catch (Exception e) {
-					LoggerFactory.getLogger(Spider.class).error(e.getMessage(),e);
-				}
-                currentRequest.clean();
-            }
-            if(site.getConnectionPool()!=null){
-            	int statusFulConnCode = (Integer) currentRequest.getExtra(Request.STATUSFUL_CONN_CODE);
-            	StatusfulConnection conn = currentRequest.getStatusfulConn();
-            	site.returnStatusfulConn(conn, statusFulConnCode);
-            }
-            //等待
-    		if(site.getHttpProxyPool()==null || !site.getHttpProxyPool().isEnable()){
-    			sleep(site.getSleepTime());
+    				page = download(request);
+    			} catch (Exception e) {
+    				onError(request);
+    				LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", request.getUrl()), e);
+    				try {
+    					releaseRequest(request);
+    				} finally {
+    					onRequestComplete(polled);
+    				}
+    				return;
+    			}
+    			processStage.execute(new Runnable() {
+    				@Override
+    				public void run() {
+    					Request next = null;
+    					try {
+    						next = processPage(request, page);
+    					} catch (Exception e) {
+    						onError(request);
+    						LoggerFactory.getLogger(Spider.class).error(String.format("process request %s error", request.getUrl()), e);
+    					} finally {
+    						if (next == null) {
+    							try {
+    								releaseRequest(request);
+    							} finally {
+    								onRequestComplete(polled);
+    							}
+    						}
+    					}
+    					if (next != null) {
+    						if (pushChainContinuation(next)) {
+    							onRequestComplete(polled);
+    						} else {
+    							//请求链的下一个request交回下载阶段,不等待队列以免两个阶段互相阻塞
+    							downloadStage.executeWithoutWait(newStagedDownloadTask(polled, next));
+    						}
+    					}
+    				}
+    			});
+    		}
+    	};
+    }
+
+    private void processPipelinesStaged(final Page page) {
+    	//pipeline执行完之前也算作进行中,避免spider提前退出
+    	inFlightCounter.increment();
+    	try {
+    		pipelineStage.execute(new Runnable() {
+    			@Override
+    			public void run() {
+    				try {
+    					processPipelines(page);
+    				} catch (Exception e) {
+    					LoggerFactory.getLogger(Spider.class).error(String.format("process pipelines of %s error", page.getRequest().getUrl()), e);
+    				} finally {
+    					inFlightCounter.decrement();
+    				}
+    			}
+    		});
+    	} catch (RuntimeException e) {
+    		inFlightCounter.decrement();
+    		throw e;
+    	}
+    }
+
+    /**
+     * 请求(包括请求链)处理结束,它产生的新request已全部加入scheduler
+     * @param polled 从scheduler取出的request
+     */
+    private void onRequestComplete(Request polled) {
+    	if (scheduler instanceof AckScheduler) {
+    		try {
+    			((AckScheduler) scheduler).ack(polled, this);
+    		} catch (Exception e) {
+    			LoggerFactory.getLogger(Spider.class).error(String.format("ack request %s error", polled.getUrl()), e);
+    		}
+    	}
+    	pageCount.incrementAndGet();
+    	inFlightCounter.decrement();
+    }
+
+    /**
+     * 处理异步下载完成的页面,请求链中剩余的request在当前线程中同步处理
+     */
+    private void processDownloadedPage(Request request, Page page) {
+    	Request next = null;
+    	try {
+    		next = processPage(request, page);
+    	} finally {
+    		if (next == null) {
+    			releaseRequest(request);
     		}
     	}
+    	if (next != null && !pushChainContinuation(next)) {
+    		processRequest(next);
+    	}
     }
 
     protected void sleep(int time) {
@@ -498,6 +1043,16 @@ public class Spider implements Runnable, Task, Cloneable{
 
     protected void extractAndAddRequests(Page page, boolean spawnUrl) {
         if (spawnUrl && CollectionUtils.isNotEmpty(page.getTargetRequests())) {
+            if (scheduler instanceof BlockingScheduler) {
+                //工作线程占着线程池的位置,阻塞时run线程无法poll
+                ((BlockingScheduler) scheduler).pushAllWithoutBlocking(page.getTargetRequests(), this);
+                signalNewUrl();
+                return;
+            }
+            if (scheduler instanceof BatchScheduler) {
+                addRequests(page.getTargetRequests());
+                return;
+            }
             for (Request request : page.getTargetRequests()) {
                 addRequest(request);
             }
@@ -511,7 +1066,21 @@ public class Spider implements Runnable, Task, Cloneable{
         if(scheduler == null){
         	scheduler = new QueueScheduler();
         }
-        scheduler.push(request, this);
+        if (scheduler instanceof BlockingScheduler && (stat == null || stat.get() != STAT_RUNNING)) {
+        	//未运行时没有线程poll,不能阻塞
+        	((BlockingScheduler) scheduler).pushAllWithoutBlocking(Collections.singletonList(request), this);
+        } else {
+        	scheduler.push(request, this);
+        }
+        signalNewUrl();
+    }
+
+    private void addRequests(List<Request> requests) {
+        if (site.getDomain() == null && requests.get(0) != null && requests.get(0).getUrl() != null) {
+            site.setDomain(UrlUtils.getDomain(requests.get(0).getUrl()));
+        }
+        ((BatchScheduler) scheduler).pushAll(requests, this);
+        signalNewUrl();
     }
 
     protected void checkIfRunning() {
@@ -530,7 +1099,6 @@ public class Spider implements Runnable, Task, Cloneable{
         for (String url : urls) {
             addRequest(new Request(url));
         }
-        signalNewUrl();
         return this;
     }
 
@@ -555,6 +1123,133 @@ public class Spider implements Runnable, Task, Cloneable{
         return collectorPipeline.getCollected();
     }
 
+    /**
+     * Download urls in background and take results by iterator in the order they are completed.<br>
+     * Urls are pushed to scheduler lazily, at most bufferSize requests are left in a {@link us.codecraft.webmagic.scheduler.MonitorableScheduler}
+     * or in flight, and workers block when bufferSize results are not taken, so memory stays flat for large batches.
+     * Cancel the iterator to stop early. Settings changed for streaming are restored when it ends.
+     *
+     * @param urls urls to download, read lazily
+     * @param bufferSize max results waiting for the consumer, also max urls pushed but not finished
+     * @return iterator of results
+     * @see StreamingCollectorPipeline
+     * @since 0.5.3
+     */
+    public StreamingCollectorPipeline getAllStreaming(final Iterator<String> urls, final int bufferSize) {
+        checkIfRunning();
+        final StreamingCollectorPipeline streamingPipeline = new StreamingCollectorPipeline(bufferSize);
+        streamingPipeline.setCancelCallback(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+                signalNewUrl();
+            }
+        });
+        final boolean oldDestroyWhenExit = destroyWhenExit;
+        final boolean oldSpawnUrl = spawnUrl;
+        final boolean oldExitWhenComplete = exitWhenComplete;
+        destroyWhenExit = false;
+        spawnUrl = false;
+        exitWhenComplete = false;
+        if (startRequests != null) {
+            startRequests.clear();
+        }
+        //在启动线程前创建,避免feeder和spider各自创建默认scheduler
+        if (scheduler == null) {
+            scheduler = new QueueScheduler();
+        }
+        if (pageCount == null) {
+            pageCount = new AtomicLong(0);
+        }
+        pipelines.add(streamingPipeline);
+        Thread spiderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Spider.this.run();
+                } finally {
+                    //停止时工作线程可能还在执行pipeline,线程池空闲后再移除
+                    awaitIdle();
+                    pipelines.remove(streamingPipeline);
+                    spawnUrl = oldSpawnUrl;
+                    destroyWhenExit = oldDestroyWhenExit;
+                    exitWhenComplete = oldExitWhenComplete;
+                    streamingPipeline.finish();
+                }
+            }
+        }, "spider-" + getUUID() + "-stream");
+        Thread feederThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    feedUrls(urls, bufferSize, streamingPipeline);
+                } finally {
+                    //url全部加入后,处理完即退出
+                    exitWhenComplete = true;
+                    signalNewUrl();
+                }
+            }
+        }, "spider-" + getUUID() + "-feeder");
+        spiderThread.start();
+        feederThread.start();
+        return streamingPipeline;
+    }
+
+    public StreamingCollectorPipeline getAllStreaming(Iterable<String> urls, int bufferSize) {
+        return getAllStreaming(urls.iterator(), bufferSize);
+    }
+
+    /**
+     * 按未完成的request数量控制加入scheduler的url,不超过bufferSize
+     */
+    private void feedUrls(Iterator<String> urls, int bufferSize, StreamingCollectorPipeline streamingPipeline) {
+        long finishedBase = pageCount.get();
+        long pushed = 0;
+        while (urls.hasNext() && !streamingPipeline.isCancelled()) {
+            long version = inFlightCounter.getVersion();
+            if (getUnfinishedCount(pushed, finishedBase) >= bufferSize) {
+                try {
+                    inFlightCounter.await(version, emptySleepTime);
+                } catch (InterruptedException e) {
+                    LoggerUtil.warn(uuid, "feedUrls - interrupted error");
+                    return;
+                }
+                continue;
+            }
+            addRequest(new Request(urls.next()));
+            pushed++;
+        }
+    }
+
+    /**
+     * scheduler中剩余的和进行中的request数,被scheduler丢弃的重试和请求链延续不会占用名额;
+     * scheduler不能监控时按完成的request数估计,重试完成时也计入,只会多加入url而不会停滞
+     */
+    private long getUnfinishedCount(long pushed, long finishedBase) {
+        if (scheduler instanceof MonitorableScheduler) {
+            return ((MonitorableScheduler) scheduler).getLeftRequestsCount(this) + inFlightCounter.get();
+        }
+        return pushed - (pageCount.get() - finishedBase);
+    }
+
+    /**
+     * 等待进行中的request全部结束
+     */
+    private void awaitIdle() {
+        for (;;) {
+            long version = inFlightCounter.getVersion();
+            if (inFlightCounter.get() <= 0) {
+                return;
+            }
+            try {
+                inFlightCounter.await(version, emptySleepTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
     protected CollectorPipeline getCollectorPipeline() {
         return new ResultItemsCollectorPipeline();
     }
@@ -579,31 +1274,46 @@ public class Spider implements Runnable, Task, Cloneable{
         for (Request request : requests) {
             addRequest(request);
         }
-        signalNewUrl();
         return this;
     }
 
-    private void waitNewUrl() {
-        newUrlLock.lock();
+    /**
+     * Get the time until the scheduler has a ready request.
+     *
+     * @return delay in ms, -1 if nothing is left in a {@link DelayAwareScheduler}
+     */
+    private long getNextPollDelay() {
+        if (scheduler instanceof DelayAwareScheduler) {
+            return ((DelayAwareScheduler) scheduler).getNextPollDelay(this);
+        }
+        return -1;
+    }
+
+    /**
+     * Wait until something is pushed, a request is finished, or the next delayed request is ready.
+     *
+     * @param version version of in-flight counter read before polling
+     * @param pollDelay delay of next request in scheduler
+     */
+    private void waitNewUrl(long version, long pollDelay) {
+        //double check
+        if (inFlightCounter.get() == 0 && exitWhenComplete && pollDelay < 0) {
+            return;
+        }
+        if (pollDelay == 0) {
+            return;
+        }
+        long waitTime = pollDelay > 0 ? Math.min(pollDelay, emptySleepTime) : emptySleepTime;
         try {
-            //double check
-            if (threadPool.getThreadAlive() == 0 && exitWhenComplete) {
-                return;
-            }
-            newUrlCondition.await(emptySleepTime, TimeUnit.MILLISECONDS);
+            inFlightCounter.await(version, waitTime);
         } catch (InterruptedException e) {
             LoggerUtil.warn(uuid, "waitNewUrl - interrupted error");
-        } finally {
-            newUrlLock.unlock();
         }
     }
 
     private void signalNewUrl() {
-        try {
-            newUrlLock.lock();
-            newUrlCondition.signalAll();
-        } finally {
-            newUrlLock.unlock();
+        if (inFlightCounter != null) {
+            inFlightCounter.signal();
         }
     }
 
@@ -619,6 +1329,117 @@ public class Spider implements Runnable, Task, Cloneable{
         }
     }
 
+    /**
+     * Stop polling new requests and wait for requests in flight to finish.<br>
+     * Requests spawned by them are still pushed to scheduler.
+     *
+     * @param timeout max time to wait in ms
+     * @return true if all requests in flight are finished before timeout
+     * @since 0.5.3
+     */
+    public boolean drain(long timeout) {
+        stop();
+        signalNewUrl();
+        long deadline = System.currentTimeMillis() + timeout;
+        for (;;) {
+            long version = inFlightCounter.getVersion();
+            if (inFlightCounter.get() <= 0) {
+                return true;
+            }
+            long waitTime = deadline - System.currentTimeMillis();
+            if (waitTime <= 0) {
+                LoggerUtil.warn(uuid, String.format("Spider %s drain timeout, %d requests in flight", getUUID(), inFlightCounter.get()));
+                return false;
+            }
+            try {
+                inFlightCounter.await(version, waitTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Write requests left in scheduler and the duplicate check state to a local snapshot.<br>
+     * Requests are taken out of scheduler, so it should be called when spider is stopped and no request is in flight.
+     *
+     * @param file snapshot file
+     * @throws IOException
+     * @see #resumeFrom(File)
+     * @since 0.5.3
+     */
+    public void checkpoint(File file) throws IOException {
+        if (scheduler == null) {
+            return;
+        }
+        SchedulerSnapshot snapshot = SchedulerSnapshot.write(scheduler, this, file);
+        LoggerUtil.info(uuid, String.format("Spider %s checkpoint %d requests to %s", getUUID(), snapshot.getRequestCount(), file));
+    }
+
+    /**
+     * Drain and checkpoint, so that a restarted spider can resume by {@link #resumeFrom(File)}.<br>
+     * No snapshot is written if requests are still in flight after timeout, for they are already in the duplicate
+     * check state but not in the requests left, and neither are links they spawn later, so they could never be pushed
+     * again after resume. Use a longer timeout, or a WalQueueScheduler recovering requests in flight from its log.<br>
+     * The scheduler closed by the exit of spider is closed after the snapshot is written.
+     *
+     * @param timeout max time to wait for requests in flight in ms
+     * @param file snapshot file
+     * @return true if all requests in flight are finished before timeout and the snapshot is written
+     * @throws IOException
+     * @since 0.5.3
+     */
+    public boolean stopAndCheckpoint(long timeout, File file) throws IOException {
+        synchronized (this) {
+            checkpointing = true;
+        }
+        try {
+            if (!drain(timeout)) {
+                LoggerUtil.warn(uuid, String.format("Spider %s does not checkpoint to %s, %d requests still in flight", getUUID(), file, inFlightCounter.get()));
+                return false;
+            }
+            checkpoint(file);
+            return true;
+        } finally {
+            //spider退出时推迟的关闭在checkpoint之后进行
+            boolean closeScheduler;
+            synchronized (this) {
+                checkpointing = false;
+                closeScheduler = schedulerCloseDeferred;
+                schedulerCloseDeferred = false;
+            }
+            if (closeScheduler) {
+                closeScheduler();
+            }
+        }
+    }
+
+    /**
+     * Resume from a snapshot written by {@link #checkpoint(File)}, start urls are ignored if the snapshot exists.
+     *
+     * @param file snapshot file
+     * @return this
+     * @throws IOException
+     * @since 0.5.3
+     */
+    public Spider resumeFrom(File file) throws IOException {
+        checkIfRunning();
+        if (!file.exists()) {
+            return this;
+        }
+        SchedulerSnapshot snapshot = SchedulerSnapshot.read(file);
+        if (scheduler == null) {
+            scheduler = new QueueScheduler();
+        }
+        if (startRequests != null) {
+            startRequests.clear();
+        }
+        snapshot.restore(scheduler, this);
+        LoggerUtil.info(uuid, String.format("Spider %s resume %d requests from %s", getUUID(), snapshot.getRequestCount(), file));
+        return this;
+    }
+
     /**
      * start with more than one threads
      *
@@ -647,6 +1468,35 @@ public class Spider implements Runnable, Task, Cloneable{
         return this;
     }
 
+    /**
+     * start with more than one threads
+     *
+     * @param threadNum max requests in flight
+     * @param virtualThread run each request on a virtual thread, so that threadNum is not limited by OS threads.
+     * @return this
+     * @throws UnsupportedOperationException if virtualThread is true before Java 21
+     * @see CountableThreadPool#isVirtualThreadSupported()
+     */
+    public Spider thread(int threadNum, boolean virtualThread) {
+        if (!virtualThread) {
+            return thread(threadNum);
+        }
+        checkIfRunning();
+        //不退回平台线程,threadNum按虚拟线程设置时可能非常大
+        if (!CountableThreadPool.isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("virtual threads are not supported before Java 21, use thread(int) instead");
+        }
+        this.threadNum = threadNum;
+        if (threadNum <= 0) {
+            throw new IllegalArgumentException("threadNum should be more than one!");
+        }
+        downloader.setThread(threadNum);
+        if (threadPool == null || threadPool.isShutdown()) {
+            threadPool = CountableThreadPool.newVirtualThreadPool(threadNum);
+        }
+        return this;
+    }
+
     /**
      * start with more than one threads
      *
@@ -662,6 +1512,62 @@ public class Spider implements Runnable, Task, Cloneable{
         return this;
     }
 
+    /**
+     * Adjust requests in flight by latency and status code of downloading.<br>
+     * The limit goes up while the site is healthy and is cut on bans or timeouts, never above threadNum.
+     * With {@link #stage(int, int, int, int)} it limits the requests in the download stage.
+     *
+     * @param concurrencyLimit null for fixed threadNum
+     * @return this
+     * @see AimdConcurrencyLimit
+     * @since 0.5.3
+     */
+    public Spider setConcurrencyLimit(AimdConcurrencyLimit concurrencyLimit) {
+        checkIfRunning();
+        this.concurrencyLimit = concurrencyLimit;
+        return this;
+    }
+
+    public AimdConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Run download, page processing and pipelines in their own thread pools.<br>
+     * Each stage is handed off through a queue of queueCapacity, and a full queue blocks the former stage,
+     * so that I/O bound downloading and CPU bound processing can be scaled separately.
+     *
+     * @param downloadThreadNum threads for downloading
+     * @param processThreadNum threads for page processing
+     * @param pipelineThreadNum threads for pipelines
+     * @param queueCapacity max tasks waiting in each stage
+     * @return this
+     * @see StageThreadPool
+     * @since 0.5.3
+     */
+    public Spider stage(int downloadThreadNum, int processThreadNum, int pipelineThreadNum, int queueCapacity) {
+        checkIfRunning();
+        this.threadNum = downloadThreadNum;
+        shutdownStages();
+        downloadStage = new StageThreadPool("download", downloadThreadNum, queueCapacity, new SpiderThreadFactory("download"));
+        processStage = new StageThreadPool("process", processThreadNum, queueCapacity, new SpiderThreadFactory("process"));
+        pipelineStage = new StageThreadPool("pipeline", pipelineThreadNum, queueCapacity, new SpiderThreadFactory("pipeline"));
+        downloader.setThread(downloadThreadNum);
+        return this;
+    }
+
+    public StageThreadPool getDownloadStage() {
+        return downloadStage;
+    }
+
+    public StageThreadPool getProcessStage() {
+        return processStage;
+    }
+
+    public StageThreadPool getPipelineStage() {
+        return pipelineStage;
+    }
+
     public boolean isExitWhenComplete() {
         return exitWhenComplete;
     }
@@ -736,10 +1642,30 @@ public class Spider implements Runnable, Task, Cloneable{
      * @since 0.4.1
      */
     public int getThreadAlive() {
-        if (threadPool == null) {
-            return 0;
+        int threadAlive = 0;
+        if (threadPool != null) {
+            threadAlive += threadPool.getThreadAlive();
+        }
+        if (downloadStage != null) {
+            threadAlive += downloadStage.getTaskAlive();
+        }
+        if (processStage != null) {
+            threadAlive += processStage.getTaskAlive();
         }
-        return threadPool.getThreadAlive();
+        if (pipelineStage != null) {
+            threadAlive += pipelineStage.getTaskAlive();
+        }
+        return threadAlive;
+    }
+
+    /**
+     * Get count of requests polled from scheduler and not finished yet.
+     *
+     * @return requests in flight
+     * @since 0.5.3
+     */
+    public int getRequestsInFlight() {
+        return inFlightCounter.get();
     }
 
     /**
@@ -823,8 +1749,9 @@ public class Spider implements Runnable, Task, Cloneable{
 //	    	spider.scheduler = new QueueScheduler();
 //	    	spider.startTime = new Date();
 	    	spider.stat = new AtomicInteger(STAT_INIT);
-//	    	spider.newUrlLock = new ReentrantLock();
-//	    	spider.newUrlCondition = spider.newUrlLock.newCondition();
+	    	spider.inFlightCounter = new InFlightCounter();
+	    	//uuid标识一个任务,克隆出的spider不共用
+	    	spider.uuid = null;
 //	    	spider.pageCount = new AtomicLong(0);
 		} catch (CloneNotSupportedException e) {
 			e.printStackTrace();
@@ -839,10 +1766,14 @@ public class Spider implements Runnable, Task, Cloneable{
         final String namePrefix;
 
         SpiderThreadFactory() {
+            this("thread");
+        }
+
+        SpiderThreadFactory(String name) {
             SecurityManager s = System.getSecurityManager();
             group = (s != null)? s.getThreadGroup() :
                                  Thread.currentThread().getThreadGroup();
-            namePrefix = "spider-" +getUUID()+"-thread-";
+            namePrefix = "spider-" +getUUID()+"-"+name+"-";
         }
 
         public Thread newThread(Runnable r) {
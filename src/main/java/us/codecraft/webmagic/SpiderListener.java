@@ -15,5 +15,12 @@ public interface SpiderListener {
     public void onMatchSuccess(Request request);//匹配成功
     
     public void onMatchError(Request request);//匹配失败
+
+    /**
+     * The page is duplicate of a page downloaded before, it skips PageProcessor and pipelines.
+     * @since 0.5.3
+     */
+    public default void onDuplicateContent(Request request) {
+    }
     
 }
@@ -40,4 +40,89 @@ public abstract class AbstractDownloader implements Downloader {
 
     protected void onError(Request request) {
     }
+
+    /**
+     * Add request back to scheduler by the status code stored in {@link Request#STATUS_CODE}.<br>
+     * Errors of proxy are retried until success when proxy pool is enabled,
+     * other errors are retried {@link Site#getCycleRetryTimes()} times.
+     *
+     * @param request
+     * @param site
+     * @return page need cycle retry, or null if retry times is exceeded
+     */
+    protected Page addToCycleRetry(Request request, Site site) {
+    	Page page = new Page();
+        Object cycleTriedTimesObject = request.getExtra(Request.CYCLE_TRIED_TIMES);//存储的次数仅对site级别的错误有效，因为代理IP级别的错误是无限次重试的
+    	
+        //根据request的statusCode来确定处理流程
+    	Integer statusCode = (Integer)request.getExtra(Request.STATUS_CODE);
+    	
+    	//IP级别的错误，如果使用代理IP无限重试，直到正常或不是代理IP级别错误,如果不使用代理IP,则重试site.cycleRetryTimes次
+    	if(Proxy.PROXY_ERROR_CODE_SET.contains(statusCode)){
+    		if (site.getHttpProxyPool() != null && site.getHttpProxyPool().isEnable()) {
+    			if (cycleTriedTimesObject == null) {
+                    page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, 1)));
+                } else {
+                    page.addTargetRequest(backoff(site, request.setPriority(0)));
+                }
+    		}else{
+    			if (cycleTriedTimesObject == null) {
+                    page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, 1)));
+                } else {
+                    int cycleTriedTimes = (Integer) cycleTriedTimesObject;
+                    cycleTriedTimes++;
+                    if(site.getCycleRetryTimes() == 0){
+                		page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, cycleTriedTimes)));
+                	}else{
+                		if (cycleTriedTimes >= site.getCycleRetryTimes()) {
+                            return null;
+                        }
+                		page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, cycleTriedTimes)));
+                	}
+                }
+    		}
+    	}
+    	
+    	//如果是site级别的可接受的statusCode，则重试site.cycleRetryTimes次
+    	if(site.getAcceptStatCode().contains(statusCode)){
+    		if (cycleTriedTimesObject == null) {
+                page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, 1)));
+            } else {
+                int cycleTriedTimes = (Integer) cycleTriedTimesObject;
+                cycleTriedTimes++;
+                if(site.getCycleRetryTimes() == 0){
+            		page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, cycleTriedTimes)));
+            	}else{
+            		if (cycleTriedTimes >= site.getCycleRetryTimes()) {
+                        return null;
+                    }
+            		page.addTargetRequest(backoff(site, request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, cycleTriedTimes)));
+            	}
+            }
+    	}
+    	
+        page.setNeedCycleRetry(true);
+        return page;
+    }
+
+    /**
+     * Delay the cycle retry by {@link Site#getCycleRetryBackoff()}, doubled with each try.<br>
+     * Tries are counted in {@link Request#BACKOFF_TRIED_TIMES}, for retries of proxy errors with a proxy pool
+     * do not count {@link Request#CYCLE_TRIED_TIMES}.
+     *
+     * @param site
+     * @param request
+     * @return request
+     */
+    protected Request backoff(Site site, Request request) {
+        if (site.getCycleRetryBackoff() <= 0) {
+            return request;
+        }
+        Object backoffTriedTimes = request.getExtra(Request.BACKOFF_TRIED_TIMES);
+        int tries = backoffTriedTimes == null ? 1 : (Integer) backoffTriedTimes + 1;
+        request.putExtra(Request.BACKOFF_TRIED_TIMES, tries);
+        long delay = (long) site.getCycleRetryBackoff() << Math.min(tries - 1, 30);
+        delay = Math.min(delay, Math.max(site.getMaxCycleRetryBackoff(), site.getCycleRetryBackoff()));
+        return request.setNotBefore(System.currentTimeMillis() + delay);
+    }
 }
@@ -0,0 +1,40 @@
+package us.codecraft.webmagic.downloader;
+
+import org.apache.http.HttpResponse;
+
+import us.codecraft.webmagic.Page;
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * Downloader which downloads web pages without blocking the calling thread. <br>
+ * Spider uses it to keep many requests in flight with few threads, and processes pages in its own thread pool.
+ *
+ * @author code4crafter@gmail.com <br>
+ * @since 0.5.3
+ * @see us.codecraft.webmagic.Spider#setAsyncDownloader(AsyncDownloader, int)
+ */
+public interface AsyncDownloader extends Downloader {
+
+    /**
+     * Start downloading web pages and return immediately.<br>
+     * The callback is invoked exactly once, in an io thread, so it should not do any heavy work.
+     *
+     * @param request
+     * @param task
+     * @param callback
+     */
+    public void download(Request request, Task task, DownloadCallback callback);
+
+    /**
+     * Build page from the response passed to {@link DownloadCallback#onComplete(Request, HttpResponse)}.<br>
+     * It reads, decodes and checks the content, so call it in a worker thread rather than the io thread.
+     *
+     * @param request
+     * @param task
+     * @param httpResponse
+     * @return same as {@link #download(Request, Task)}
+     */
+    public Page buildPage(Request request, Task task, HttpResponse httpResponse);
+
+}
@@ -0,0 +1,34 @@
+package us.codecraft.webmagic.downloader;
+
+import org.apache.http.HttpResponse;
+
+import us.codecraft.webmagic.Page;
+import us.codecraft.webmagic.Request;
+
+/**
+ * Callback of {@link AsyncDownloader}, invoked in an io thread, so it should only hand results over to other threads.
+ *
+ * @author code4crafter@gmail.com <br>
+ * @since 0.5.3
+ */
+public interface DownloadCallback {
+
+    /**
+     * Called when the response is received.<br>
+     * Reading and checking the content is left to {@link AsyncDownloader#buildPage(Request, us.codecraft.webmagic.Task, HttpResponse)},
+     * which should be called out of the io thread.
+     *
+     * @param request the request downloaded
+     * @param httpResponse response with content received
+     */
+    public void onComplete(Request request, HttpResponse httpResponse);
+
+    /**
+     * Called when downloading fails after retries or is cancelled.
+     *
+     * @param request the request downloaded
+     * @param page null, or a page need cycle retry
+     */
+    public void onFailed(Request request, Page page);
+
+}
@@ -0,0 +1,251 @@
+package us.codecraft.webmagic.downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.annotation.ThreadSafe;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import us.codecraft.webmagic.Page;
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Site;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.proxy.Proxy;
+import us.codecraft.webmagic.utils.LoggerUtil;
+
+/**
+ * The non-blocking http downloader based on HttpAsyncClient.<br>
+ * A few io threads drive all connections, so that slow responses and proxy timeouts do not hold any worker thread.
+ * The io threads only receive responses, the content is read and checked by {@link #buildPage(Request, Task, HttpResponse)}
+ * in worker threads. <br>
+ * IO errors are retried {@link Site#getRetryTimes()} times, and status codes and exceptions are mapped to cycle retry
+ * the same way as {@link HttpClientDownloader}. The client is built again after it is closed.
+ *
+ * @author code4crafter@gmail.com <br>
+ * @since 0.5.3
+ * @see us.codecraft.webmagic.Spider#setAsyncDownloader(AsyncDownloader, int)
+ */
+@ThreadSafe
+public class HttpAsyncClientDownloader extends HttpClientDownloader implements AsyncDownloader, Closeable {
+
+    private static final String logName = "HttpAsyncClientDownloader";
+
+    private final HttpAsyncClientGenerator httpAsyncClientGenerator;
+
+    private volatile CloseableHttpAsyncClient httpAsyncClient;
+
+    private final Map<String, CookieStore> cookieStores = new ConcurrentHashMap<String, CookieStore>();
+
+    public HttpAsyncClientDownloader() {
+        this(new HttpAsyncClientGenerator());
+    }
+
+    /**
+     * @param ioThreadCount count of threads to dispatch io events
+     */
+    public HttpAsyncClientDownloader(int ioThreadCount) {
+        this(new HttpAsyncClientGenerator(ioThreadCount));
+    }
+
+    public HttpAsyncClientDownloader(HttpAsyncClientGenerator httpAsyncClientGenerator) {
+        this.httpAsyncClientGenerator = httpAsyncClientGenerator;
+    }
+
+    private CloseableHttpAsyncClient getHttpAsyncClient() {
+        CloseableHttpAsyncClient httpAsyncClient = this.httpAsyncClient;
+        if (httpAsyncClient == null) {
+            synchronized (this) {
+                httpAsyncClient = this.httpAsyncClient;
+                if (httpAsyncClient == null) {
+                    httpAsyncClient = httpAsyncClientGenerator.getClient();
+                    this.httpAsyncClient = httpAsyncClient;
+                }
+            }
+        }
+        return httpAsyncClient;
+    }
+
+    /**
+     * Download synchronously by waiting for the async download, the page is built in the calling thread.
+     */
+    @Override
+    public Page download(Request request, Task task) {
+        final HttpResponse[] response = new HttpResponse[1];
+        final Page[] result = new Page[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        download(request, task, new DownloadCallback() {
+            @Override
+            public void onComplete(Request request, HttpResponse httpResponse) {
+                response[0] = httpResponse;
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailed(Request request, Page page) {
+                result[0] = page;
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (response[0] != null) {
+            return buildPage(request, task, response[0]);
+        }
+        return result[0];
+    }
+
+    @Override
+    public void download(final Request request, final Task task, final DownloadCallback callback) {
+        final Site site = task.getSite();
+        LoggerUtil.info(task.getUUID(),logName,"downloading page {}",new Object[]{request.getUrl()});
+        getHttpAsyncClient().execute(newHttpUriRequest(request, site), getHttpContext(site), new FutureCallback<HttpResponse>() {
+
+            private int executionCount = 1;
+
+            @Override
+            public void completed(HttpResponse httpResponse) {
+                //io线程只交出response,读取和检查内容在工作线程中进行
+                callback.onComplete(request, httpResponse);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (retryRequest(e, executionCount, site)) {
+                    executionCount++;
+                    LoggerUtil.info(task.getUUID(),logName,"retry " + request.getUrl() + " for " + e.getClass().getSimpleName());
+                    try {
+                        getHttpAsyncClient().execute(newHttpUriRequest(request, site), getHttpContext(site), this);
+                        return;
+                    } catch (RuntimeException executeError) {
+                        e = executeError;
+                    }
+                }
+                callback.onFailed(request, handleException(request, site, e));
+            }
+
+            @Override
+            public void cancelled() {
+                request.putExtra(Request.STATUS_CODE, Proxy.ERROR_DEFAULT);
+                onError(request);
+                callback.onFailed(request, null);
+            }
+        });
+    }
+
+    @Override
+    public Page buildPage(Request request, Task task, HttpResponse httpResponse) {
+        Site site = task.getSite();
+        try {
+            decompress(httpResponse);
+            return handleStatus(request, site, task, getAcceptStatCode(site), site.getCharset(),
+                    URI.create(request.getUrl()).getHost(), httpResponse);
+        } catch (IOException e) {
+            return handleException(request, site, e);
+        } catch (RuntimeException e) {
+            LoggerUtil.info(task.getUUID(),logName,request.getUrl() + " handle response error!" + e.getMessage());
+            request.putExtra(Request.STATUS_CODE, Proxy.ERROR_DEFAULT);
+            onError(request);
+            return null;
+        }
+    }
+
+    private HttpUriRequest newHttpUriRequest(Request request, Site site) {
+        HttpUriRequest httpUriRequest = getHttpUriRequest(request, site, getHeaders(request, site));
+        if (site.getUserAgent() != null && !httpUriRequest.containsHeader("User-Agent")) {
+            httpUriRequest.addHeader("User-Agent", site.getUserAgent());
+        }
+        if (site.isUseGzip() && !httpUriRequest.containsHeader("Accept-Encoding")) {
+            httpUriRequest.addHeader("Accept-Encoding", "gzip");
+        }
+        return httpUriRequest;
+    }
+
+    /**
+     * Whether to retry the failed request, the same as DefaultHttpRequestRetryHandler of {@link HttpClientDownloader}.
+     *
+     * @param e error of downloading
+     * @param executionCount times executed
+     * @param site
+     * @return true to retry
+     */
+    protected boolean retryRequest(Exception e, int executionCount, Site site) {
+        if (executionCount > site.getRetryTimes() || !(e instanceof IOException)) {
+            return false;
+        }
+        return !(e instanceof InterruptedIOException || e instanceof UnknownHostException
+                || e instanceof ConnectException || e instanceof SSLException);
+    }
+
+    protected HttpClientContext getHttpContext(Site site) {
+        String domain = String.valueOf(site.getDomain());
+        CookieStore cookieStore = cookieStores.get(domain);
+        if (cookieStore == null) {
+            synchronized (this) {
+                cookieStore = cookieStores.get(domain);
+                if (cookieStore == null) {
+                    cookieStore = httpAsyncClientGenerator.generateCookieStore(site);
+                    cookieStores.put(domain, cookieStore);
+                }
+            }
+        }
+        HttpClientContext httpContext = HttpClientContext.create();
+        httpContext.setCookieStore(cookieStore);
+        httpContext.setAttribute(HttpAsyncClientGenerator.REDIRECT_ENABLED, site.isRedirect());
+        return httpContext;
+    }
+
+    /**
+     * HttpAsyncClient does not decode content, so unzip gzip content here.
+     */
+    protected void decompress(HttpResponse httpResponse) {
+        HttpEntity entity = httpResponse.getEntity();
+        if (entity == null) {
+            return;
+        }
+        Header contentEncoding = entity.getContentEncoding();
+        if (contentEncoding != null && contentEncoding.getValue().toLowerCase().contains("gzip")) {
+            httpResponse.setEntity(new GzipDecompressingEntity(entity));
+        }
+    }
+
+    @Override
+    public void setThread(int thread) {
+        httpAsyncClientGenerator.setPoolSize(thread);
+    }
+
+    /**
+     * Close the client, a new client is built by the next download, so the downloader can be used by the next run.
+     */
+    @Override
+    public void close() throws IOException {
+        CloseableHttpAsyncClient httpAsyncClient;
+        synchronized (this) {
+            httpAsyncClient = this.httpAsyncClient;
+            this.httpAsyncClient = null;
+        }
+        if (httpAsyncClient != null) {
+            httpAsyncClient.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package us.codecraft.webmagic.downloader;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+import us.codecraft.webmagic.Site;
+
+import java.util.Map;
+
+/**
+ * Generator of the event-driven http client used by {@link HttpAsyncClientDownloader}.<br>
+ * All sites share one client and one IO reactor, site settings such as cookies and redirect are set for each request.
+ *
+ * @author code4crafter@gmail.com <br>
+ * @since 0.5.3
+ */
+public class HttpAsyncClientGenerator {
+
+    /**
+     * Attribute of http context, redirect is disabled when it is {@link Boolean#FALSE}.
+     */
+    public static final String REDIRECT_ENABLED = "webmagic.redirectEnabled";
+
+    private final Registry<SchemeIOSessionStrategy> registry;
+
+    private final IOReactorConfig ioReactorConfig;
+
+    private volatile int poolSize;
+
+    private volatile PoolingNHttpClientConnectionManager connectionManager;
+
+    public HttpAsyncClientGenerator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param ioThreadCount count of threads to dispatch io events
+     */
+    public HttpAsyncClientGenerator(int ioThreadCount) {
+        registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                .build();
+        ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreadCount)
+                .setSoKeepAlive(true)
+                .setTcpNoDelay(true)
+                .build();
+    }
+
+    public HttpAsyncClientGenerator setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+        PoolingNHttpClientConnectionManager connectionManager = this.connectionManager;
+        if (connectionManager != null) {
+            connectionManager.setMaxTotal(poolSize);
+            connectionManager.setDefaultMaxPerRoute(poolSize);
+        }
+        return this;
+    }
+
+    /**
+     * Build and start a client with a new IO reactor, it must be closed to stop io threads.<br>
+     * Closing a client shuts down its IO reactor, so a client is built again after it is closed.
+     *
+     * @return started client
+     */
+    public CloseableHttpAsyncClient getClient() {
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig), registry);
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("create io reactor fail", e);
+        }
+        if (poolSize > 0) {
+            connectionManager.setMaxTotal(poolSize);
+            connectionManager.setDefaultMaxPerRoute(poolSize);
+        }
+        this.connectionManager = connectionManager;
+        CloseableHttpAsyncClient httpAsyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setRedirectStrategy(new DefaultRedirectStrategy() {
+
+                    @Override
+                    public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context)
+                            throws ProtocolException {
+                        return !Boolean.FALSE.equals(context.getAttribute(REDIRECT_ENABLED))
+                                && super.isRedirected(request, response, context);
+                    }
+                })
+                .build();
+        httpAsyncClient.start();
+        return httpAsyncClient;
+    }
+
+    public CookieStore generateCookieStore(Site site) {
+        CookieStore cookieStore = new BasicCookieStore();
+        for (Map.Entry<String, String> cookieEntry : site.getCookies().entrySet()) {
+            BasicClientCookie cookie = new BasicClientCookie(cookieEntry.getKey(), cookieEntry.getValue());
+            cookie.setDomain(site.getDomain());
+            cookieStore.addCookie(cookie);
+        }
+        for (Map.Entry<String, Map<String, String>> domainEntry : site.getAllCookies().entrySet()) {
+            for (Map.Entry<String, String> cookieEntry : domainEntry.getValue().entrySet()) {
+                BasicClientCookie cookie = new BasicClientCookie(cookieEntry.getKey(), cookieEntry.getValue());
+                cookie.setDomain(domainEntry.getKey());
+                cookieStore.addCookie(cookie);
+            }
+        }
+        return cookieStore;
+    }
+
+}
@@ -54,10 +54,28 @@ public class HttpClientDownloader extends AbstractDownloader {
 	
 	private static final String logName = "HttpClientDownloader";
 
-    //所有HttpClientDownloader对象共享一个httpClient池
-    private final static Map<String, CloseableHttpClient> httpClients = new HashMap<String, CloseableHttpClient>();
+    //默认所有HttpClientDownloader对象共享一个httpClient池
+    private final static Map<String, CloseableHttpClient> sharedHttpClients = new HashMap<String, CloseableHttpClient>();
+
+    private final Map<String, CloseableHttpClient> httpClients;
     
-    private HttpClientGenerator httpClientGenerator = new HttpClientGenerator();
+    private HttpClientGenerator httpClientGenerator;
+
+    public HttpClientDownloader() {
+        this.httpClients = sharedHttpClients;
+        this.httpClientGenerator = new HttpClientGenerator();
+    }
+
+    /**
+     * Create a downloader with its own http clients, which all use the connection pool of httpClientGenerator.
+     *
+     * @param httpClientGenerator
+     * @since 0.5.3
+     */
+    public HttpClientDownloader(HttpClientGenerator httpClientGenerator) {
+        this.httpClients = new HashMap<String, CloseableHttpClient>();
+        this.httpClientGenerator = httpClientGenerator;
+    }
 
     private CloseableHttpClient getHttpClient(Site site) {
     	if (site == null) {
@@ -83,96 +101,118 @@ public class HttpClientDownloader extends AbstractDownloader {
         if (task != null) {
             site = task.getSite();
         }
-        Set<Integer> acceptStatCode;
-        String charset = null;
-        Map<String, String> headers = null;
-        if (site != null) {
-            acceptStatCode = site.getAcceptStatCode();
-            charset = site.getCharset();
-            headers = site.getHeaders();
-            //用request中的headers覆盖site中的headers
-            Map<String,String> independentheaders = request.getHeaders();
-            if(independentheaders!=null){
-            	for(Entry<String,String> entry : independentheaders.entrySet()){
-            		headers.put(entry.getKey(), entry.getValue());
-            	}
-            }
-        } else {
-            acceptStatCode = Sets.newHashSet(200);
-            headers = request.getHeaders();
-        }
+        Set<Integer> acceptStatCode = getAcceptStatCode(site);
+        String charset = site != null ? site.getCharset() : null;
+        Map<String, String> headers = getHeaders(request, site);
         LoggerUtil.info(task.getUUID(),logName,"downloading page {}",new Object[]{request.getUrl()});
         CloseableHttpResponse httpResponse = null;
-        int statusCode=0;
         try {
         	HttpUriRequest httpUriRequest = getHttpUriRequest(request, site, headers);
         	String host = httpUriRequest.getURI().getHost();
             httpResponse = getHttpClient(site).execute(httpUriRequest);
-            statusCode = httpResponse.getStatusLine().getStatusCode();
-            request.putExtra(Request.STATUS_CODE, statusCode);
-            if (statusAccept(acceptStatCode, statusCode)) {
-                Page page = handleResponse(request, charset, httpResponse, task);
-                //添加网页有效性验证字段，为了防止statuscode=200，但网页无效（可能的原因有代理IP响应速度太慢或被封）
-                String validRule = site.getValidCheck(request.getFieldRuleId() == null ? 0 :request.getFieldRuleId());
-                if(!StringUtils.isEmpty(validRule)){
-                	if(StringUtils.isEmpty(page.getHtml().xpath(validRule).toString()) && StringUtils.isEmpty(page.getHtml().regex(validRule).toString())){
-                		LoggerUtil.info(task.getUUID(),logName,"没有通过页面正确性检测,statusCode:{},{}",new Object[]{statusCode,request.getUrl()});
-                    	request.putExtra(Request.STATUS_CODE, Proxy.ERROR_BANNED);//为代理IP级ERROR_BANNED错误
-                    	return addToCycleRetry(request, site);
-                    }
+            return handleStatus(request, site, task, acceptStatCode, charset, host, httpResponse);
+        } catch (IOException e) {
+            return handleException(request, site, e);
+        }finally {
+            try {
+                if (httpResponse != null) {
+                    EntityUtils.consume(httpResponse.getEntity());
                 }
-                onSuccess(request);
-                LoggerUtil.info(task.getUUID(),logName,"{}: downloading page success! {}", new Object[]{Thread.currentThread().getName(),request.getUrl()});
-                page.setHost(host);
-                return page;	
-            } else {
-            	if(statusCode == Proxy.ERROR_403 || statusCode == Proxy.ERROR_500){
-            		LoggerUtil.info(task.getUUID(),logName,"code error " + statusCode + "\t" + request.getUrl());
-            		if(site.getHttpProxyPool()!=null && site.getHttpProxyPool().isEnable()){
-                		return addToCycleRetry(request, site);
-                	}else{
-                		return null;
-                	}
+            } catch (IOException e) {
+            	//2015-04-01 socket在consume之前即已断开，不记录此错误日志
+//            	LoggerFactory.getLogger(HttpClientDownloader.class).error("close response fail", e);
+            }
+        }
+    }
+
+    /**
+     * Build page from response by status code, or add request to cycle retry.
+     */
+    protected Page handleStatus(Request request, Site site, Task task, Set<Integer> acceptStatCode, String charset, String host, HttpResponse httpResponse) throws IOException {
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        request.putExtra(Request.STATUS_CODE, statusCode);
+        if (statusAccept(acceptStatCode, statusCode)) {
+            Page page = handleResponse(request, charset, httpResponse, task);
+            //添加网页有效性验证字段，为了防止statuscode=200，但网页无效（可能的原因有代理IP响应速度太慢或被封）
+            String validRule = site.getValidCheck(request.getFieldRuleId() == null ? 0 :request.getFieldRuleId());
+            if(!StringUtils.isEmpty(validRule)){
+            	if(StringUtils.isEmpty(page.getHtml().xpath(validRule).toString()) && StringUtils.isEmpty(page.getHtml().regex(validRule).toString())){
+            		LoggerUtil.info(task.getUUID(),logName,"没有通过页面正确性检测,statusCode:{},{}",new Object[]{statusCode,request.getUrl()});
+                	request.putExtra(Request.STATUS_CODE, Proxy.ERROR_BANNED);//为代理IP级ERROR_BANNED错误
+                	return addToCycleRetry(request, site);
                 }
-            	LoggerUtil.info(task.getUUID(),logName,"code error " + statusCode + "\t" + request.getUrl());
-                return null;
             }
-        } catch(HttpHostConnectException e){
+            onSuccess(request);
+            LoggerUtil.info(task.getUUID(),logName,"{}: downloading page success! {}", new Object[]{Thread.currentThread().getName(),request.getUrl()});
+            page.setHost(host);
+            return page;
+        } else {
+        	if(statusCode == Proxy.ERROR_403 || statusCode == Proxy.ERROR_500){
+        		LoggerUtil.info(task.getUUID(),logName,"code error " + statusCode + "\t" + request.getUrl());
+        		if(site.getHttpProxyPool()!=null && site.getHttpProxyPool().isEnable()){
+            		return addToCycleRetry(request, site);
+            	}else{
+            		return null;
+            	}
+            }
+        	LoggerUtil.info(task.getUUID(),logName,"code error " + statusCode + "\t" + request.getUrl());
+            return null;
+        }
+    }
+
+    /**
+     * Map exception of downloading to status code, and add request to cycle retry when it is caused by proxy.
+     */
+    protected Page handleException(Request request, Site site, Exception e) {
+        if(e instanceof HttpHostConnectException){
         	//由于是代理IP本身的原因，请求要重新放回，更换代理IP再试
         	request.putExtra(Request.STATUS_CODE, Proxy.ERROR_Proxy);
         	return addToCycleRetry(request, site);
-        } catch(ConnectTimeoutException e){
+        } else if(e instanceof ConnectTimeoutException){
         	//由于是代理IP本身的原因，请求要重新放回，更换代理IP再试
         	request.putExtra(Request.STATUS_CODE, Proxy.ERROR_PROXY_TIME_OUT);
         	return addToCycleRetry(request, site);
-        } catch(ClientProtocolException e){
+        } else if(e instanceof ClientProtocolException){
             request.putExtra(Request.STATUS_CODE, Request.ERROR_ILLEGAL_REQUEST_URI);
             onError(request);
             return null;
-        }catch(SocketTimeoutException e){
+        } else if(e instanceof SocketTimeoutException){
         	request.putExtra(Request.STATUS_CODE, Proxy.ERROR_SOCKET_READ_TIME_OUT);
         	//代理IP速度太慢，导致读response超时
         	return addToCycleRetry(request, site);
-        }catch(UnknownHostException e){
+        } else if(e instanceof UnknownHostException){
             request.putExtra(Request.STATUS_CODE, Proxy.ERROR_DEFAULT);
             onError(request);
             return null;
-        }catch (IOException e) {
+        } else {
             request.putExtra(Request.STATUS_CODE, Proxy.ERROR_DEFAULT);
             onError(request);
             return addToCycleRetry(request, site);
-        }finally {
-            try {
-                if (httpResponse != null) {
-                    EntityUtils.consume(httpResponse.getEntity());
-                }
-            } catch (IOException e) {
-            	//2015-04-01 socket在consume之前即已断开，不记录此错误日志
-//            	LoggerFactory.getLogger(HttpClientDownloader.class).error("close response fail", e);
-            }
         }
     }
 
+    protected Set<Integer> getAcceptStatCode(Site site) {
+        if (site != null) {
+            return site.getAcceptStatCode();
+        }
+        return Sets.newHashSet(200);
+    }
+
+    protected Map<String, String> getHeaders(Request request, Site site) {
+        if (site == null) {
+            return request.getHeaders();
+        }
+        Map<String, String> headers = site.getHeaders();
+        //用request中的headers覆盖site中的headers
+        Map<String,String> independentheaders = request.getHeaders();
+        if(independentheaders!=null){
+        	for(Entry<String,String> entry : independentheaders.entrySet()){
+        		headers.put(entry.getKey(), entry.getValue());
+        	}
+        }
+        return headers;
+    }
+
     @Override
     public void setThread(int thread) {
         httpClientGenerator.setPoolSize(thread);
@@ -315,57 +355,4 @@ public class HttpClientDownloader extends AbstractDownloader {
         // 3、todo use tools as cpdetector for content decode
         return charset;
     }
-    
-    private Page addToCycleRetry(Request request, Site site) {
-    	Page page = new Page();
-        Object cycleTriedTimesObject = request.getExtra(Request.CYCLE_TRIED_TIMES);//存储的次数仅对site级别的错误有效，因为代理IP级别的错误是无限次重试的
-    	
-        //根据request的statusCode来确定处理流程
-    	Integer statusCode = (Integer)request.getExtra(Request.STATUS_CODE);
-    	
-    	//IP级别的错误，如果使用代理IP无限重试，直到正常或不是代理IP级别错误,如果不使用代理IP,则重试site.cycleRetryTimes次
-    	if(Proxy.PROXY_ERROR_CODE_SET.contains(statusCode)){
-    		if (site.getHttpProxyPool() != null && site.getHttpProxyPool().isEnable()) {
-    			if (cycleTriedTimesObject == null) {
-                    page.addTargetRequest(request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, 1));
-                } else {
-                    page.addTargetRequest(request.setPriority(0));
-                }
-    		}else{
-    			if (cycleTriedTimesObject == null) {
-                    page.addTargetRequest(request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, 1));
-                } else {
-                    int cycleTriedTimes = (Integer) cycleTriedTimesObject;
-                    cycleTriedTimes++;
-                    if(site.getCycleRetryTimes() == 0){
-                		page.addTargetRequest(request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, cycleTriedTimes));
-                	}else{
-                		if (cycleTriedTimes >= site.getCycleRetryTimes()) {
-                            return null;
-                        }
-                	}
-                }
-    		}
-    	}
-    	
-    	//如果是site级别的可接受的statusCode，则重试site.cycleRetryTimes次
-    	if(site.getAcceptStatCode().contains(statusCode)){
-    		if (cycleTriedTimesObject == null) {
-                page.addTargetRequest(request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, 1));
-            } else {
-                int cycleTriedTimes = (Integer) cycleTriedTimesObject;
-                cycleTriedTimes++;
-                if(site.getCycleRetryTimes() == 0){
-            		page.addTargetRequest(request.setPriority(0).putExtra(Request.CYCLE_TRIED_TIMES, cycleTriedTimes));
-            	}else{
-            		if (cycleTriedTimes >= site.getCycleRetryTimes()) {
-                        return null;
-                    }
-            	}
-            }
-    	}
-    	
-        page.setNeedCycleRetry(true);
-        return page;
-    }
 }
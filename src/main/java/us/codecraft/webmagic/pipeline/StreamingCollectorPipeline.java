@@ -0,0 +1,142 @@
+package us.codecraft.webmagic.pipeline;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import us.codecraft.webmagic.Page;
+import us.codecraft.webmagic.ResultItems;
+import us.codecraft.webmagic.Task;
+
+/**
+ * Pipeline that hands results to a consumer through a bounded buffer, in the order they are completed. <br>
+ * When the buffer is full, workers of spider block until the consumer takes results,
+ * so memory stays flat however many urls are crawled. <br>
+ * Used for {@link us.codecraft.webmagic.Spider#getAllStreaming(Iterator, int)}
+ *
+ * @author code4crafter@gmail.com
+ * @since 0.5.3
+ */
+public class StreamingCollectorPipeline implements Pipeline, Iterator<ResultItems> {
+
+    private static final ResultItems END = new ResultItems();
+
+    private static final long OFFER_TIMEOUT = 100;
+
+    private final BlockingQueue<ResultItems> queue;
+
+    private volatile boolean cancelled = false;
+
+    private volatile Runnable cancelCallback;
+
+    private ResultItems next;
+
+    private boolean ended = false;
+
+    /**
+     * @param bufferSize max results waiting for the consumer
+     */
+    public StreamingCollectorPipeline(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize should be more than one!");
+        }
+        this.queue = new ArrayBlockingQueue<ResultItems>(bufferSize);
+    }
+
+    @Override
+    public void process(Page page, Task task) {
+        offer(page.getResultItems());
+    }
+
+    /**
+     * Mark the end of results, called when the spider is over.
+     */
+    public void finish() {
+        offer(END);
+    }
+
+    private void offer(ResultItems resultItems) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(resultItems, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the next result.
+     *
+     * @return false if all results are taken, or the consumer is cancelled or interrupted
+     */
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (ended || cancelled) {
+            return false;
+        }
+        try {
+            ResultItems resultItems = queue.take();
+            if (resultItems == END) {
+                ended = true;
+                return false;
+            }
+            next = resultItems;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public ResultItems next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ResultItems resultItems = next;
+        next = null;
+        return resultItems;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Stop taking results, results not taken are dropped and the spider is stopped.
+     */
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+        Runnable cancelCallback = this.cancelCallback;
+        if (cancelCallback != null) {
+            cancelCallback.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void setCancelCallback(Runnable cancelCallback) {
+        this.cancelCallback = cancelCallback;
+    }
+
+    /**
+     * Get count of results waiting for the consumer.
+     *
+     * @return buffered count
+     */
+    public int getBuffered() {
+        return queue.size();
+    }
+}
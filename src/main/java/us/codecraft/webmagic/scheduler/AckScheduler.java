@@ -0,0 +1,24 @@
+package us.codecraft.webmagic.scheduler;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * The scheduler which is told when a polled request is finished, so that requests polled but not finished
+ * can be polled again after a crash, or the delay of a host starts when its page is finished. <br>
+ * Spider acks a request after it is processed and all requests spawned by it are pushed.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public interface AckScheduler extends Scheduler {
+
+    /**
+     * The polled request is finished.
+     *
+     * @param request request returned by {@link #poll(Task)}
+     * @param task
+     */
+    public void ack(Request request, Task task);
+
+}
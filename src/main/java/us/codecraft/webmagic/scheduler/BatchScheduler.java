@@ -0,0 +1,35 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.List;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * The scheduler which pushes and polls requests in batch.<br>
+ * Spider pushes all target requests of a page at once, and polls as many requests as idle threads,
+ * so the cost of locks and duplicate check is shared by the whole batch.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public interface BatchScheduler extends Scheduler {
+
+    /**
+     * Push requests in order.
+     *
+     * @param requests requests
+     * @param task the task of spider
+     */
+    public void pushAll(List<Request> requests, Task task);
+
+    /**
+     * Poll at most maxSize requests.
+     *
+     * @param task the task of spider
+     * @param maxSize max count of requests
+     * @return requests polled, empty if no request is left
+     */
+    public List<Request> pollBatch(Task task, int maxSize);
+
+}
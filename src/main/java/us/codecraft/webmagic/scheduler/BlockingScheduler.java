@@ -0,0 +1,27 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.List;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * The scheduler whose push may block the producer until there is room.<br>
+ * Spider pushes requests from its own threads without blocking, for its worker threads hold the slots
+ * polling depends on, and blocking them stalls the spider. Requests from other threads, such as feeders,
+ * are pushed by push and may block.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public interface BlockingScheduler extends BatchScheduler {
+
+    /**
+     * Push requests in order without blocking, they are admitted even if the scheduler is full.
+     *
+     * @param requests requests
+     * @param task the task of spider
+     */
+    public void pushAllWithoutBlocking(List<Request> requests, Task task);
+
+}
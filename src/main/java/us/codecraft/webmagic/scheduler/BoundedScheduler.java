@@ -0,0 +1,360 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * Priority scheduler holding at most capacity requests in memory, so memory is predictable
+ * however many links pages emit.<br>
+ * When it is full, a new request is handled by the {@link OverflowPolicy}: block the producer, drop the request
+ * of lowest priority, spill to disk or reject. <br>
+ * Retried requests and request chain continuations are always admitted, for they are already being crawled.
+ * Requests dropped or rejected have passed duplicate check, so they will not be pushed again. <br>
+ * BLOCK policy only blocks producers out of spider such as feeders, requests of spider threads are pushed by
+ * {@link #pushAllWithoutBlocking(List, Task)} and admitted over capacity, for blocking them stops polling.
+ * Spilled requests are moved back to memory as polls make room. Counts of overflow are in {@link #getTelemetry(Task)}.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+@ThreadSafe
+public class BoundedScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DrainableScheduler, BlockingScheduler, Closeable {
+
+    public enum OverflowPolicy {
+        /**
+         * wait until there is room, or reject when blockTimeout is over
+         */
+        BLOCK,
+        /**
+         * drop the request of lowest priority, the new request itself if it is the lowest
+         */
+        DROP_LOWEST,
+        /**
+         * append to a {@link SpillQueueScheduler}, moved back to memory in order as polls make room
+         */
+        SPILL,
+        /**
+         * reject the new request
+         */
+        REJECT
+    }
+
+    private final int capacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private long blockTimeout = 60000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * higher priority first, then earlier pushed first
+     */
+    private final TreeSet<Entry> requests = new TreeSet<Entry>();
+
+    private final ArrayDeque<Request> continuations = new ArrayDeque<Request>();
+
+    private final SpillQueueScheduler spillScheduler;
+
+    private long nextSeq = 0;
+
+    private final AtomicLong count = new AtomicLong(0);
+
+    /**
+     * @param capacity max requests in memory
+     * @param overflowPolicy policy when full, use {@link #BoundedScheduler(int, String)} for SPILL
+     */
+    public BoundedScheduler(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be more than one!");
+        }
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            throw new IllegalArgumentException("spill directory is required for SPILL policy!");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.spillScheduler = null;
+    }
+
+    /**
+     * Bounded scheduler spilling to disk when full.
+     *
+     * @param capacity max requests in memory
+     * @param spillDirectory directory of spilled requests
+     */
+    public BoundedScheduler(int capacity, String spillDirectory) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be more than one!");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = OverflowPolicy.SPILL;
+        this.spillScheduler = new SpillQueueScheduler(spillDirectory, Math.max(1, capacity / 10), SpillQueueScheduler.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Set max time a producer is blocked by BLOCK policy, the request is rejected after it.<br>
+     *
+     * @param blockTimeout time in ms
+     * @return this
+     */
+    public BoundedScheduler setBlockTimeout(long blockTimeout) {
+        this.blockTimeout = blockTimeout;
+        return this;
+    }
+
+    @Override
+    protected void pushWhenNoDuplicate(Request request, Task task) {
+        offer(request, task, true);
+    }
+
+    /**
+     * Push requests of spider threads, BLOCK policy admits them over capacity instead of blocking.
+     */
+    @Override
+    public void pushAllWithoutBlocking(List<Request> requests, Task task) {
+        for (Request request : removeDuplicate(requests, task)) {
+            offer(request, task, false);
+        }
+    }
+
+    /**
+     * Restored requests are admitted by the overflow policy without blocking, for no thread polls before resume.
+     */
+    @Override
+    public void pushRestored(List<Request> requests, Task task) {
+        for (Request request : requests) {
+            offer(request, task, false);
+        }
+    }
+
+    private void offer(Request request, Task task, boolean block) {
+        boolean spill = false;
+        lock.lock();
+        try {
+            if (request.isChainContinuation()) {
+                countPush(request);
+                telemetry.onPush(request);
+                continuations.addLast(request);
+                return;
+            }
+            //已经有溢出的request时,新的request也要写入磁盘,由poll按顺序移回内存
+            boolean full = requests.size() >= capacity
+                    || (spillScheduler != null && spillScheduler.getLeftRequestsCount(task) > 0);
+            if (full && request.getExtra(Request.CYCLE_TRIED_TIMES) == null) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        if (block && !awaitNotFull()) {
+                            telemetry.onReject();
+                            logger.debug("scheduler is full, reject {} after blocking", request.getUrl());
+                            return;
+                        }
+                        break;
+                    case DROP_LOWEST:
+                        Entry lowest = requests.last();
+                        if (lowest.request.getPriority() >= request.getPriority()) {
+                            telemetry.onDrop();
+                            logger.debug("scheduler is full, drop {}", request.getUrl());
+                            return;
+                        }
+                        requests.pollLast();
+                        telemetry.onRemove(lowest.request);
+                        telemetry.onDrop();
+                        logger.debug("scheduler is full, drop {}", lowest.request.getUrl());
+                        break;
+                    case SPILL:
+                        spill = true;
+                        break;
+                    default:
+                        telemetry.onReject();
+                        logger.debug("scheduler is full, reject {}", request.getUrl());
+                        return;
+                }
+            }
+            countPush(request);
+            telemetry.onPush(request);
+            if (spill) {
+                telemetry.onSpill();
+                //在锁内写入磁盘,避免refill在判断已满和写入之间移走溢出的request而打乱顺序
+                spillScheduler.pushWhenNoDuplicate(request, task);
+            } else {
+                requests.add(new Entry(request, nextSeq++));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Only requests admitted or spilled are counted, retried requests are counted when first pushed.
+     */
+    private void countPush(Request request) {
+        if (request.getExtra(Request.CYCLE_TRIED_TIMES) == null) {
+            count.incrementAndGet();
+        }
+    }
+
+    private boolean awaitNotFull() {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+        boolean waited = false;
+        while (requests.size() >= capacity) {
+            if (!waited) {
+                telemetry.onBlock();
+                waited = true;
+            }
+            if (nanos <= 0) {
+                return false;
+            }
+            try {
+                nanos = notFull.awaitNanos(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Request poll(Task task) {
+        Request request = pollRequest(task);
+        if (request != null) {
+            telemetry.onPoll(request);
+        }
+        return request;
+    }
+
+    private Request pollRequest(Task task) {
+        lock.lock();
+        try {
+            Request request = continuations.pollFirst();
+            if (request != null) {
+                return request;
+            }
+            if (spillScheduler != null) {
+                refill(task);
+            }
+            Entry entry = requests.pollFirst();
+            if (entry != null) {
+                notFull.signal();
+                return entry.request;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move spilled requests back to memory in the order spilled, so they are not starved by new pushes.
+     */
+    private void refill(Task task) {
+        Request request;
+        while (requests.size() < capacity && (request = spillScheduler.poll(task)) != null) {
+            requests.add(new Entry(request, nextSeq++));
+        }
+    }
+
+    @Override
+    public List<Request> drain(Task task) {
+        return drain(task, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Take out requests in memory first, then spilled requests chunk by chunk.
+     */
+    @Override
+    public List<Request> drain(Task task, int maxSize) {
+        List<Request> drained = new ArrayList<Request>();
+        lock.lock();
+        try {
+            while (drained.size() < maxSize && !continuations.isEmpty()) {
+                drained.add(continuations.pollFirst());
+            }
+            while (drained.size() < maxSize && !requests.isEmpty()) {
+                drained.add(requests.pollFirst().request);
+            }
+            if (spillScheduler != null && drained.size() < maxSize) {
+                drained.addAll(spillScheduler.drain(task, maxSize - drained.size()));
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Request request : drained) {
+            telemetry.onRemove(request);
+        }
+        return drained;
+    }
+
+    @Override
+    public long getLeftRequestsCount(Task task) {
+        long left;
+        lock.lock();
+        try {
+            left = requests.size() + continuations.size();
+        } finally {
+            lock.unlock();
+        }
+        if (spillScheduler != null) {
+            left += spillScheduler.getLeftRequestsCount(task);
+        }
+        return left;
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return count.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Delete spilled requests of SPILL policy.
+     */
+    @Override
+    public void close() {
+        if (spillScheduler != null) {
+            spillScheduler.close();
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        private final Request request;
+
+        private final long seq;
+
+        private Entry(Request request, long seq) {
+            this.request = request;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (request.getPriority() != o.request.getPriority()) {
+                return request.getPriority() > o.request.getPriority() ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+}
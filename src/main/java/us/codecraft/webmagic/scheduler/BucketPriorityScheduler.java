@@ -0,0 +1,183 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * Lock free priority scheduler. Request with higher priority will poll earlier. <br>
+ * Each priority level has its own concurrent FIFO bucket, and a bitmap of non-empty buckets finds the highest
+ * level in O(1), so push and poll take no lock. <br>
+ * Up to 64 levels are supported, priorities out of [minPriority, maxPriority] are treated as the nearest bound.
+ *
+ * @author code4crafter@gmail.com
+ * @since 0.5.3
+ * @see PriorityScheduler
+ */
+@ThreadSafe
+public class BucketPriorityScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DrainableScheduler {
+
+    public static final int MAX_LEVELS = 64;
+
+    private final long minPriority;
+
+    private final long maxPriority;
+
+    private final Queue<Request>[] buckets;
+
+    /**
+     * bit i is set when bucket i may be non-empty
+     */
+    private final AtomicLong bitmap = new AtomicLong();
+
+    private final AtomicLongArray bucketSizes;
+
+    private final AtomicLong left = new AtomicLong();
+
+    /**
+     * Priorities from -31 to 32.
+     */
+    public BucketPriorityScheduler() {
+        this(-31, 32);
+    }
+
+    /**
+     * @param minPriority lowest priority level
+     * @param maxPriority highest priority level, at most 63 levels above minPriority
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BucketPriorityScheduler(long minPriority, long maxPriority) {
+        if (maxPriority < minPriority || maxPriority - minPriority >= MAX_LEVELS) {
+            throw new IllegalArgumentException("levels between minPriority and maxPriority should be in [1, " + MAX_LEVELS + "]");
+        }
+        this.minPriority = minPriority;
+        this.maxPriority = maxPriority;
+        int levels = (int) (maxPriority - minPriority + 1);
+        this.buckets = new Queue[levels];
+        for (int i = 0; i < levels; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<Request>();
+        }
+        this.bucketSizes = new AtomicLongArray(levels);
+    }
+
+    @Override
+    protected void pushWhenNoDuplicate(Request request, Task task) {
+        int level = getLevel(request.getPriority());
+        telemetry.onPush(request);
+        buckets[level].offer(request);
+        bucketSizes.incrementAndGet(level);
+        left.incrementAndGet();
+        //先入队再置位,poll清除标志位后会再检查一次队列
+        setBit(level);
+    }
+
+    @Override
+    public Request poll(Task task) {
+        for (;;) {
+            long bits = bitmap.get();
+            if (bits == 0) {
+                return null;
+            }
+            int level = 63 - Long.numberOfLeadingZeros(bits);
+            Request request = buckets[level].poll();
+            if (request != null) {
+                bucketSizes.decrementAndGet(level);
+                left.decrementAndGet();
+                telemetry.onPoll(request);
+                return request;
+            }
+            clearBit(level);
+            if (!buckets[level].isEmpty()) {
+                setBit(level);
+            }
+        }
+    }
+
+    /**
+     * Take out requests of all buckets, from the highest level, they are removed rather than polled in telemetry.
+     */
+    @Override
+    public List<Request> drain(Task task) {
+        List<Request> requests = new ArrayList<Request>();
+        for (int level = buckets.length - 1; level >= 0; level--) {
+            Request request;
+            while ((request = buckets[level].poll()) != null) {
+                bucketSizes.decrementAndGet(level);
+                left.decrementAndGet();
+                telemetry.onRemove(request);
+                requests.add(request);
+            }
+            clearBit(level);
+            if (!buckets[level].isEmpty()) {
+                setBit(level);
+            }
+        }
+        return requests;
+    }
+
+    private int getLevel(long priority) {
+        if (priority <= minPriority) {
+            return 0;
+        }
+        if (priority >= maxPriority) {
+            return buckets.length - 1;
+        }
+        return (int) (priority - minPriority);
+    }
+
+    private void setBit(int level) {
+        long bit = 1L << level;
+        for (;;) {
+            long bits = bitmap.get();
+            if ((bits & bit) != 0 || bitmap.compareAndSet(bits, bits | bit)) {
+                return;
+            }
+        }
+    }
+
+    private void clearBit(int level) {
+        long bit = 1L << level;
+        for (;;) {
+            long bits = bitmap.get();
+            if ((bits & bit) == 0 || bitmap.compareAndSet(bits, bits & ~bit)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getLeftRequestsCount(Task task) {
+        return left.get();
+    }
+
+    /**
+     * Get count of requests left in the level of priority.
+     *
+     * @param priority
+     * @return left count of the level
+     */
+    public long getLeftRequestsCount(long priority) {
+        return bucketSizes.get(getLevel(priority));
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return getDuplicateRemover().getTotalRequestsCount(task);
+    }
+
+    public long getMinPriority() {
+        return minPriority;
+    }
+
+    public long getMaxPriority() {
+        return maxPriority;
+    }
+}
@@ -0,0 +1,23 @@
+package us.codecraft.webmagic.scheduler;
+
+import us.codecraft.webmagic.Task;
+
+/**
+ * The scheduler which may hold requests that are not ready to be polled yet.<br>
+ * Spider uses it to wait exactly until the next request is ready instead of exiting or sleeping blindly.
+ *
+ * @author code4crafter@gmail.com
+ * @since 0.5.3
+ */
+public interface DelayAwareScheduler extends Scheduler {
+
+    /**
+     * Get the time to wait before {@link #poll(Task)} can return a request.
+     *
+     * @param task the task of spider
+     * @return delay in milliseconds, 0 if a request is ready now, -1 if no request is left.
+     * When requests left wait for requests in flight to be acked, the delay is bounded by the ack timeout of scheduler
+     */
+    public long getNextPollDelay(Task task);
+
+}
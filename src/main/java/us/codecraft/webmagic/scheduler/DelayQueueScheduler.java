@@ -0,0 +1,150 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * FIFO scheduler holding requests until their {@link Request#NOT_BEFORE} time.<br>
+ * Requests without the time are polled in FIFO order, and delayed requests are polled first once they are due,
+ * ordered by due time. Spider waits exactly until the next request is due, so no worker thread sleeps. <br>
+ * Use it with {@link us.codecraft.webmagic.Site#setCycleRetryBackoff(int, int)} for retry backoff,
+ * or {@link #schedule(Request, long, Task)} for periodic revisits.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+@ThreadSafe
+public class DelayQueueScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DelayAwareScheduler, DrainableScheduler {
+
+    private final ArrayDeque<Request> readyQueue = new ArrayDeque<Request>();
+
+    private final PriorityQueue<DelayedRequest> delayedQueue = new PriorityQueue<DelayedRequest>();
+
+    private long nextSeq = 0;
+
+    private AtomicLong count = new AtomicLong(0);
+
+    @Override
+    protected synchronized void pushWhenNoDuplicate(Request request, Task task) {
+        if (request.getExtra(Request.CYCLE_TRIED_TIMES) == null) {
+            count.incrementAndGet();
+        }
+        telemetry.onPush(request);
+        long notBefore = request.getNotBefore();
+        if (notBefore > System.currentTimeMillis()) {
+            delayedQueue.add(new DelayedRequest(request, notBefore, nextSeq++));
+        } else if (request.isChainContinuation()) {
+            readyQueue.addFirst(request);
+        } else {
+            readyQueue.addLast(request);
+        }
+    }
+
+    /**
+     * Push request to be polled after delay, skipping duplicate check, for revisiting a page already crawled.
+     *
+     * @param request
+     * @param delay delay in ms
+     * @param task
+     */
+    public void schedule(Request request, long delay, Task task) {
+        request.setNotBefore(System.currentTimeMillis() + delay);
+        pushWhenNoDuplicate(request, task);
+    }
+
+    @Override
+    public synchronized Request poll(Task task) {
+        Request request;
+        DelayedRequest delayedRequest = delayedQueue.peek();
+        if (delayedRequest != null && delayedRequest.notBefore <= System.currentTimeMillis()) {
+            delayedQueue.poll();
+            request = delayedRequest.request;
+        } else {
+            request = readyQueue.pollFirst();
+        }
+        if (request != null) {
+            telemetry.onPoll(request);
+        }
+        return request;
+    }
+
+    @Override
+    public synchronized long getNextPollDelay(Task task) {
+        if (!readyQueue.isEmpty()) {
+            return 0;
+        }
+        DelayedRequest delayedRequest = delayedQueue.peek();
+        if (delayedRequest == null) {
+            return -1;
+        }
+        return Math.max(0, delayedRequest.notBefore - System.currentTimeMillis());
+    }
+
+    /**
+     * Take out all requests, delayed requests included.
+     */
+    @Override
+    public synchronized List<Request> drain(Task task) {
+        List<Request> requests = new ArrayList<Request>(readyQueue.size() + delayedQueue.size());
+        requests.addAll(readyQueue);
+        readyQueue.clear();
+        DelayedRequest delayedRequest;
+        while ((delayedRequest = delayedQueue.poll()) != null) {
+            requests.add(delayedRequest.request);
+        }
+        for (Request request : requests) {
+            telemetry.onRemove(request);
+        }
+        return requests;
+    }
+
+    @Override
+    public synchronized long getLeftRequestsCount(Task task) {
+        return readyQueue.size() + delayedQueue.size();
+    }
+
+    /**
+     * Get count of requests not due yet.
+     *
+     * @return delayed count
+     */
+    public synchronized int getDelayedRequestsCount() {
+        return delayedQueue.size();
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return count.get();
+    }
+
+    private static class DelayedRequest implements Comparable<DelayedRequest> {
+
+        private final Request request;
+
+        private final long notBefore;
+
+        private final long seq;
+
+        private DelayedRequest(Request request, long notBefore, long seq) {
+            this.request = request;
+            this.notBefore = notBefore;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(DelayedRequest o) {
+            if (notBefore != o.notBefore) {
+                return notBefore < o.notBefore ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.List;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+/**
+ * The scheduler whose left requests can be taken out at once, including requests not ready to poll yet.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see SchedulerSnapshot
+ */
+public interface DrainableScheduler extends Scheduler {
+
+    /**
+     * Count of requests moved at once when the frontier is moved chunk by chunk.
+     */
+    public static final int DRAIN_SIZE = 1000;
+
+    /**
+     * Remove and return all requests left.
+     *
+     * @param task
+     * @return requests left
+     */
+    public List<Request> drain(Task task);
+
+    /**
+     * Remove and return part of requests left, empty if no request is left.<br>
+     * Schedulers spilling requests to disk return at most maxSize requests, so a frontier larger than memory can be moved
+     * chunk by chunk. Schedulers keeping all requests in memory may return them at once.
+     *
+     * @param task
+     * @param maxSize max count of requests
+     * @return requests left, empty if no request is left
+     */
+    public default List<Request> drain(Task task, int maxSize) {
+        return drain(task);
+    }
+
+}
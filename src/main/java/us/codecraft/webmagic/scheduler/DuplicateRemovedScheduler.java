@@ -1,5 +1,8 @@
 package us.codecraft.webmagic.scheduler;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import us.codecraft.webmagic.Request;
@@ -13,12 +16,14 @@ import us.codecraft.webmagic.scheduler.component.HashSetDuplicateRemover;
  * @author code4crafer@gmail.com
  * @since 0.5.0
  */
-public abstract class DuplicateRemovedScheduler implements Scheduler {
+public abstract class DuplicateRemovedScheduler implements BatchScheduler {
 
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
     private DuplicateRemover duplicatedRemover = new HashSetDuplicateRemover();
 
+    protected final TelemetryRecorder telemetry = new TelemetryRecorder();
+
     public DuplicateRemover getDuplicateRemover() {
         return duplicatedRemover;
     }
@@ -34,14 +39,112 @@ public abstract class DuplicateRemovedScheduler implements Scheduler {
         if (!duplicatedRemover.isDuplicate(request, task) || shouldReserved(request)) {
             logger.debug("push to queue {}", request.getUrl());
             pushWhenNoDuplicate(request, task);
+        } else {
+            telemetry.onDuplicate();
         }
     }
     
+    @Override
+    public void pushAll(List<Request> requests, Task task) {
+        List<Request> pushRequests = removeDuplicate(requests, task);
+        if (!pushRequests.isEmpty()) {
+            logger.debug("push {} of {} requests to queue", pushRequests.size(), requests.size());
+            pushAllWhenNoDuplicate(pushRequests, task);
+        }
+    }
+
+    /**
+     * Push requests restored from a {@link SchedulerSnapshot}, they skip the duplicate check only,
+     * for they are already in the restored duplicate check state.<br>
+     * Subclasses checking more than duplicates before queueing should check restored requests too.
+     * A snapshot is restored chunk by chunk, so it may be called several times.
+     *
+     * @param requests requests restored
+     * @param task
+     */
+    public void pushRestored(List<Request> requests, Task task) {
+        if (!requests.isEmpty()) {
+            pushAllWhenNoDuplicate(requests, task);
+        }
+    }
+
+    /**
+     * Check the batch at once.
+     *
+     * @param requests requests
+     * @param task
+     * @return requests not duplicate and requests reserved
+     */
+    protected List<Request> removeDuplicate(List<Request> requests, Task task) {
+        List<Request> pushRequests = new ArrayList<Request>(requests.size());
+        boolean[] duplicates = duplicatedRemover.isDuplicate(requests, task);
+        for (int i = 0; i < duplicates.length; i++) {
+            Request request = requests.get(i);
+            if (!duplicates[i] || shouldReserved(request)) {
+                pushRequests.add(request);
+            } else {
+                telemetry.onDuplicate();
+            }
+        }
+        return pushRequests;
+    }
+
+    /**
+     * Poll requests one by one, override it when the queue can poll in batch.
+     */
+    @Override
+    public List<Request> pollBatch(Task task, int maxSize) {
+        List<Request> requests = new ArrayList<Request>(Math.min(maxSize, 16));
+        Request request;
+        while (requests.size() < maxSize && (request = poll(task)) != null) {
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    /**
+     * Whether to record ages from push to poll in telemetry, false by default.<br>
+     * The push time is kept in extras of queued requests, and removed when they are polled.
+     *
+     * @param ageRecorded
+     * @return this
+     */
+    public DuplicateRemovedScheduler setAgeRecorded(boolean ageRecorded) {
+        telemetry.setAgeRecorded(ageRecorded);
+        return this;
+    }
+
+    /**
+     * Get telemetry recorded by subclasses, with counts of {@link MonitorableScheduler} if implemented.
+     *
+     * @param task
+     * @return snapshot
+     */
+    public SchedulerTelemetry getTelemetry(Task task) {
+        if (this instanceof MonitorableScheduler) {
+            MonitorableScheduler monitorableScheduler = (MonitorableScheduler) this;
+            return telemetry.snapshot(monitorableScheduler.getLeftRequestsCount(task), monitorableScheduler.getTotalRequestsCount(task));
+        }
+        return telemetry.snapshot(-1, -1);
+    }
+
     protected boolean shouldReserved(Request request) {
-        return request.getExtra(Request.CYCLE_TRIED_TIMES) != null;
+        return request.getExtra(Request.CYCLE_TRIED_TIMES) != null || request.isChainContinuation();
     }
 
     protected void pushWhenNoDuplicate(Request request, Task task) {
     	
     }
+
+    /**
+     * Push requests not duplicate one by one, override it when the queue can push in batch.
+     *
+     * @param requests requests passing duplicate check
+     * @param task
+     */
+    protected void pushAllWhenNoDuplicate(List<Request> requests, Task task) {
+        for (Request request : requests) {
+            pushWhenNoDuplicate(request, task);
+        }
+    }
 }
@@ -0,0 +1,404 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.utils.UrlUtils;
+
+/**
+ * Scheduler partitioning requests into per-host queues, serving hosts round-robin.<br>
+ * A host with weight n is served n requests in its turn, 1 by default, so a host emitting many links
+ * does not starve other hosts. <br>
+ * Each host queue holds at most maxHostDepth requests, further requests of the host are dropped,
+ * except retried requests and request chain continuations. The depth is checked before the duplicate check,
+ * so a dropped url is not recorded and can be pushed again when its host queue has room.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see PolitenessScheduler
+ */
+@ThreadSafe
+public class HostShardedScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DrainableScheduler {
+
+    private final ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<String, HostQueue>();
+
+    private final Map<String, Integer> hostWeights = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * hosts with requests, the head host is being served
+     */
+    private final ArrayDeque<HostQueue> activeHosts = new ArrayDeque<HostQueue>();
+
+    private final int maxHostDepth;
+
+    private final AtomicLong left = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public HostShardedScheduler() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxHostDepth max requests queued for each host
+     */
+    public HostShardedScheduler(int maxHostDepth) {
+        if (maxHostDepth <= 0) {
+            throw new IllegalArgumentException("maxHostDepth should be more than one!");
+        }
+        this.maxHostDepth = maxHostDepth;
+    }
+
+    /**
+     * Set requests served for the host in each turn.
+     *
+     * @param host host from {@link UrlUtils#getDomain(String)}
+     * @param weight more than one
+     * @return this
+     */
+    public HostShardedScheduler setHostWeight(String host, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight should be more than one!");
+        }
+        hostWeights.put(host, weight);
+        HostQueue hostQueue = hostQueues.get(host);
+        if (hostQueue != null) {
+            hostQueue.weight = weight;
+        }
+        return this;
+    }
+
+    @Override
+    public void push(Request request, Task task) {
+        if (!shouldReserved(request)) {
+            HostQueue hostQueue = getHostQueue(getHost(request));
+            synchronized (hostQueue) {
+                if (hostQueue.requests.size() >= maxHostDepth) {
+                    drop(hostQueue, request);
+                    return;
+                }
+            }
+        }
+        super.push(request, task);
+    }
+
+    /**
+     * Drop requests over the depth of their hosts before the duplicate check, counting requests of the same host in the batch.
+     */
+    @Override
+    public void pushAll(List<Request> requests, Task task) {
+        List<Request> pushRequests = dropOverDepth(requests);
+        if (!pushRequests.isEmpty()) {
+            super.pushAll(pushRequests, task);
+        }
+    }
+
+    /**
+     * Restored requests are dropped over the depth of their hosts too.
+     */
+    @Override
+    public void pushRestored(List<Request> requests, Task task) {
+        super.pushRestored(dropOverDepth(requests), task);
+    }
+
+    private List<Request> dropOverDepth(List<Request> requests) {
+        List<Request> pushRequests = new ArrayList<Request>(requests.size());
+        Map<HostQueue, Integer> depths = new HashMap<HostQueue, Integer>();
+        for (Request request : requests) {
+            if (shouldReserved(request)) {
+                pushRequests.add(request);
+                continue;
+            }
+            HostQueue hostQueue = getHostQueue(getHost(request));
+            synchronized (hostQueue) {
+                Integer depth = depths.get(hostQueue);
+                if (depth == null) {
+                    depth = hostQueue.requests.size();
+                }
+                if (depth >= maxHostDepth) {
+                    drop(hostQueue, request);
+                    continue;
+                }
+                depths.put(hostQueue, depth + 1);
+            }
+            pushRequests.add(request);
+        }
+        return pushRequests;
+    }
+
+    @Override
+    protected void pushWhenNoDuplicate(Request request, Task task) {
+        HostQueue hostQueue = getHostQueue(getHost(request));
+        boolean activate;
+        synchronized (hostQueue) {
+            //并发push时检查深度后队列仍可能满了
+            if (!shouldReserved(request) && hostQueue.requests.size() >= maxHostDepth) {
+                drop(hostQueue, request);
+                return;
+            }
+            telemetry.onPush(request);
+            hostQueue.requests.addLast(request);
+            hostQueue.pushed++;
+            left.incrementAndGet();
+            activate = !hostQueue.active;
+            hostQueue.active = true;
+        }
+        if (activate) {
+            synchronized (activeHosts) {
+                activeHosts.addLast(hostQueue);
+            }
+        }
+    }
+
+    @Override
+    public Request poll(Task task) {
+        synchronized (activeHosts) {
+            for (;;) {
+                HostQueue hostQueue = activeHosts.peekFirst();
+                if (hostQueue == null) {
+                    return null;
+                }
+                synchronized (hostQueue) {
+                    Request request = hostQueue.requests.pollFirst();
+                    if (request == null) {
+                        hostQueue.active = false;
+                        hostQueue.served = 0;
+                        activeHosts.pollFirst();
+                        continue;
+                    }
+                    hostQueue.polled++;
+                    left.decrementAndGet();
+                    telemetry.onPoll(request);
+                    if (hostQueue.requests.isEmpty()) {
+                        //队列为空时移出轮转,下次push时重新加入队尾
+                        hostQueue.active = false;
+                        hostQueue.served = 0;
+                        activeHosts.pollFirst();
+                    } else if (++hostQueue.served >= hostQueue.weight) {
+                        hostQueue.served = 0;
+                        activeHosts.addLast(activeHosts.pollFirst());
+                    }
+                    return request;
+                }
+            }
+        }
+    }
+
+    private void drop(HostQueue hostQueue, Request request) {
+        hostQueue.dropped++;
+        dropped.incrementAndGet();
+        telemetry.onDrop();
+        logger.debug("host {} is full, drop {}", hostQueue.host, request.getUrl());
+    }
+
+    /**
+     * Take out requests of all hosts in turn order, they are removed rather than polled in telemetry.
+     */
+    @Override
+    public List<Request> drain(Task task) {
+        List<Request> requests = new ArrayList<Request>();
+        synchronized (activeHosts) {
+            HostQueue hostQueue;
+            while ((hostQueue = activeHosts.pollFirst()) != null) {
+                synchronized (hostQueue) {
+                    Request request;
+                    while ((request = hostQueue.requests.pollFirst()) != null) {
+                        left.decrementAndGet();
+                        telemetry.onRemove(request);
+                        requests.add(request);
+                    }
+                    hostQueue.active = false;
+                    hostQueue.served = 0;
+                }
+            }
+        }
+        return requests;
+    }
+
+    private HostQueue getHostQueue(String host) {
+        HostQueue hostQueue = hostQueues.get(host);
+        if (hostQueue == null) {
+            HostQueue newQueue = new HostQueue(host);
+            Integer weight = hostWeights.get(host);
+            if (weight != null) {
+                newQueue.weight = weight;
+            }
+            hostQueue = hostQueues.putIfAbsent(host, newQueue);
+            if (hostQueue == null) {
+                hostQueue = newQueue;
+            }
+        }
+        return hostQueue;
+    }
+
+    protected String getHost(Request request) {
+        return UrlUtils.getDomain(request.getUrl());
+    }
+
+    @Override
+    public long getLeftRequestsCount(Task task) {
+        return left.get();
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return getDuplicateRemover().getTotalRequestsCount(task);
+    }
+
+    /**
+     * Get count of requests dropped because their host queues are full.
+     *
+     * @return dropped count
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get count of hosts ever seen by this scheduler.
+     *
+     * @return host count
+     */
+    public int getHostCount() {
+        return hostQueues.size();
+    }
+
+    /**
+     * Get count of hosts with requests left.
+     *
+     * @return active host count
+     */
+    public int getActiveHostCount() {
+        synchronized (activeHosts) {
+            return activeHosts.size();
+        }
+    }
+
+    /**
+     * Get count of requests left for the host.
+     *
+     * @param host
+     * @return depth of host queue
+     */
+    public int getHostDepth(String host) {
+        HostQueue hostQueue = hostQueues.get(host);
+        if (hostQueue == null) {
+            return 0;
+        }
+        synchronized (hostQueue) {
+            return hostQueue.requests.size();
+        }
+    }
+
+    /**
+     * Get stats of all hosts for monitor.
+     *
+     * @return stats of hosts
+     */
+    public List<HostStat> getHostStats() {
+        List<HostStat> hostStats = new ArrayList<HostStat>(hostQueues.size());
+        for (HostQueue hostQueue : hostQueues.values()) {
+            synchronized (hostQueue) {
+                hostStats.add(new HostStat(hostQueue.host, hostQueue.weight, hostQueue.requests.size(),
+                        hostQueue.pushed, hostQueue.polled, hostQueue.dropped));
+            }
+        }
+        return hostStats;
+    }
+
+    private static class HostQueue {
+
+        private final String host;
+
+        private final ArrayDeque<Request> requests = new ArrayDeque<Request>();
+
+        private volatile int weight = 1;
+
+        private int served;
+
+        private boolean active;
+
+        private long pushed;
+
+        private long polled;
+
+        private long dropped;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * Stat of one host.
+     */
+    public static class HostStat {
+
+        private final String host;
+
+        private final int weight;
+
+        private final int depth;
+
+        private final long pushed;
+
+        private final long polled;
+
+        private final long dropped;
+
+        public HostStat(String host, int weight, int depth, long pushed, long polled, long dropped) {
+            this.host = host;
+            this.weight = weight;
+            this.depth = depth;
+            this.pushed = pushed;
+            this.polled = polled;
+            this.dropped = dropped;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getPushed() {
+            return pushed;
+        }
+
+        public long getPolled() {
+            return polled;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return "HostStat{" +
+                    "host='" + host + '\'' +
+                    ", weight=" + weight +
+                    ", depth=" + depth +
+                    ", pushed=" + pushed +
+                    ", polled=" + polled +
+                    ", dropped=" + dropped +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package us.codecraft.webmagic.scheduler;
+
+/**
+ * The scheduler which keeps the delay between two pages of the same host itself.<br>
+ * A host is not polled again until its request is acked and the delay since then is over,
+ * so Spider does not sleep after each page when using it.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see PolitenessScheduler
+ */
+public interface PoliteScheduler extends AckScheduler {
+
+}
@@ -0,0 +1,308 @@
+package us.codecraft.webmagic.scheduler;
+
+import org.apache.http.annotation.ThreadSafe;
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.utils.UrlUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Host-aware politeness scheduler.<br>
+ * Requests are queued by host, and one request of a host is in flight at a time. The host is only polled again
+ * when the request is acked and its delay since then is over, so a slow page never overlaps the next one.<br>
+ * The delay is {@link us.codecraft.webmagic.Site#getSleepTime()} by default, and Spider does not sleep after each page
+ * when using this scheduler, so one thread pool can crawl many hosts at full speed while each host still gets its delay.
+ * Hosts idle for longer than their delay are evicted. <br>
+ * Used without Spider, {@link #ack(Request, Task)} must be called for each polled request.
+ * A host whose request is not acked within ackTimeout is polled again, so a lost ack does not stall it forever.
+ *
+ * @author code4crafter@gmail.com
+ * @since 0.5.3
+ */
+@ThreadSafe
+public class PolitenessScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DelayAwareScheduler, DrainableScheduler, PoliteScheduler {
+
+    private static final long SWEEP_INTERVAL = 60000;
+
+    public static final long DEFAULT_ACK_TIMEOUT = 5 * 60 * 1000;
+
+    private ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<String, HostQueue>();
+
+    private DelayQueue<HostQueue> readyHosts = new DelayQueue<HostQueue>();
+
+    private AtomicLong left = new AtomicLong();
+
+    private int delay = -1;
+
+    private long ackTimeout = DEFAULT_ACK_TIMEOUT;
+
+    private AtomicLong nextSweepTime = new AtomicLong(System.currentTimeMillis() + SWEEP_INTERVAL);
+
+    public PolitenessScheduler() {
+    }
+
+    /**
+     * @param delay delay between the ack of a request and the next poll of the same host in ms, overriding the sleepTime of site
+     */
+    public PolitenessScheduler(int delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Set the time after which a polled request not acked is given up, and its host is polled again.
+     *
+     * @param ackTimeout ack timeout in ms
+     * @return this
+     */
+    public PolitenessScheduler setAckTimeout(long ackTimeout) {
+        if (ackTimeout <= 0) {
+            throw new IllegalArgumentException("ackTimeout should be positive!");
+        }
+        this.ackTimeout = ackTimeout;
+        return this;
+    }
+
+    @Override
+    protected void pushWhenNoDuplicate(Request request, Task task) {
+        String host = getHost(request);
+        for (;;) {
+            HostQueue hostQueue = hostQueues.get(host);
+            if (hostQueue == null) {
+                HostQueue newQueue = new HostQueue(host);
+                hostQueue = hostQueues.putIfAbsent(host, newQueue);
+                if (hostQueue == null) {
+                    hostQueue = newQueue;
+                }
+            }
+            synchronized (hostQueue) {
+                if (hostQueue.evicted) {
+                    //被清理的空闲host,重新取
+                    continue;
+                }
+                left.incrementAndGet();
+                telemetry.onPush(request);
+                hostQueue.requests.add(request);
+                if (!hostQueue.scheduled && !hostQueue.fetching) {
+                    hostQueue.scheduled = true;
+                    readyHosts.add(hostQueue);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Request poll(Task task) {
+        HostQueue hostQueue = readyHosts.poll();
+        if (hostQueue == null) {
+            return null;
+        }
+        Request request;
+        synchronized (hostQueue) {
+            hostQueue.scheduled = false;
+            request = hostQueue.requests.poll();
+            if (request == null) {
+                return null;
+            }
+            //ack之前不再调度该host
+            hostQueue.fetching = true;
+            hostQueue.fetchStartTime = System.nanoTime();
+        }
+        left.decrementAndGet();
+        telemetry.onPoll(request);
+        return request;
+    }
+
+    /**
+     * The request is finished, and its host is polled again after the delay.
+     *
+     * @param request request returned by {@link #poll(Task)}
+     * @param task
+     */
+    @Override
+    public void ack(Request request, Task task) {
+        HostQueue hostQueue = hostQueues.get(getHost(request));
+        if (hostQueue != null) {
+            synchronized (hostQueue) {
+                release(hostQueue, task);
+            }
+        }
+        evictIdleHosts();
+    }
+
+    private void release(HostQueue hostQueue, Task task) {
+        if (hostQueue.fetching) {
+            hostQueue.fetching = false;
+            hostQueue.nextFetchTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getDelay(task));
+            if (!hostQueue.scheduled && !hostQueue.requests.isEmpty()) {
+                hostQueue.scheduled = true;
+                readyHosts.add(hostQueue);
+            }
+        }
+    }
+
+    /**
+     * Release hosts whose request is not acked within ackTimeout.
+     *
+     * @return time in ms until the next host in flight times out, -1 if no host is in flight
+     */
+    private long releaseUnackedHosts(Task task) {
+        long nanoTime = System.nanoTime();
+        long ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeout);
+        long nextTimeout = -1;
+        for (HostQueue hostQueue : hostQueues.values()) {
+            synchronized (hostQueue) {
+                if (!hostQueue.fetching) {
+                    continue;
+                }
+                long remaining = ackTimeoutNanos - (nanoTime - hostQueue.fetchStartTime);
+                if (remaining <= 0) {
+                    logger.warn("request of host {} is not acked in {} ms, poll the host again", hostQueue.host, ackTimeout);
+                    release(hostQueue, task);
+                } else if (nextTimeout < 0 || remaining < nextTimeout) {
+                    nextTimeout = remaining;
+                }
+            }
+        }
+        return nextTimeout < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nextTimeout) + 1;
+    }
+
+    /**
+     * Remove hosts with no request left whose delay is over, at most once a SWEEP_INTERVAL.
+     */
+    private void evictIdleHosts() {
+        long now = System.currentTimeMillis();
+        long sweepTime = nextSweepTime.get();
+        if (now < sweepTime || !nextSweepTime.compareAndSet(sweepTime, now + SWEEP_INTERVAL)) {
+            return;
+        }
+        long nanoTime = System.nanoTime();
+        for (HostQueue hostQueue : hostQueues.values()) {
+            synchronized (hostQueue) {
+                if (hostQueue.requests.isEmpty() && !hostQueue.scheduled && !hostQueue.fetching
+                        && hostQueue.nextFetchTime - nanoTime <= 0) {
+                    hostQueue.evicted = true;
+                    hostQueues.remove(hostQueue.host, hostQueue);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getNextPollDelay(Task task) {
+        if (left.get() <= 0) {
+            return -1;
+        }
+        HostQueue hostQueue = readyHosts.peek();
+        if (hostQueue == null) {
+            //剩余request的host都在下载中,ack后Spider会被唤醒;ack丢失时最多等到ackTimeout
+            long nextTimeout = releaseUnackedHosts(task);
+            hostQueue = readyHosts.peek();
+            if (hostQueue == null) {
+                return nextTimeout < 0 ? ackTimeout : nextTimeout;
+            }
+        }
+        return Math.max(0, hostQueue.getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public List<Request> drain(Task task) {
+        List<Request> requests = new ArrayList<Request>();
+        for (HostQueue hostQueue : hostQueues.values()) {
+            synchronized (hostQueue) {
+                Request request;
+                while ((request = hostQueue.requests.poll()) != null) {
+                    requests.add(request);
+                    left.decrementAndGet();
+                    telemetry.onRemove(request);
+                }
+                if (hostQueue.scheduled) {
+                    hostQueue.scheduled = false;
+                    readyHosts.remove(hostQueue);
+                }
+            }
+        }
+        return requests;
+    }
+
+    protected String getHost(Request request) {
+        return UrlUtils.getDomain(request.getUrl());
+    }
+
+    protected int getDelay(Task task) {
+        if (delay >= 0 || task == null || task.getSite() == null) {
+            return Math.max(delay, 0);
+        }
+        return task.getSite().getSleepTime();
+    }
+
+    /**
+     * Get count of hosts kept by this scheduler, idle hosts are evicted.
+     *
+     * @return host count
+     */
+    public int getHostCount() {
+        return hostQueues.size();
+    }
+
+    @Override
+    public long getLeftRequestsCount(Task task) {
+        return left.get();
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return getDuplicateRemover().getTotalRequestsCount(task);
+    }
+
+    private static class HostQueue implements Delayed {
+
+        private final String host;
+
+        private final Queue<Request> requests = new ConcurrentLinkedQueue<Request>();
+
+        /**
+         * Only changed when the host is not in the delay queue.
+         */
+        private volatile long nextFetchTime = System.nanoTime();
+
+        private boolean scheduled;
+
+        private boolean fetching;
+
+        private long fetchStartTime;
+
+        private boolean evicted;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextFetchTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            HostQueue that = (HostQueue) o;
+            //nanoTime可能溢出,只能比较差值
+            return Long.compare(nextFetchTime - that.nextFetchTime, 0);
+        }
+
+        @Override
+        public String toString() {
+            return host;
+        }
+    }
+}
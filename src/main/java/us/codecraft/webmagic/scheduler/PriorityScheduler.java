@@ -5,7 +5,9 @@ import us.codecraft.webmagic.Request;
 import us.codecraft.webmagic.Task;
 import us.codecraft.webmagic.utils.NumberUtils;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -17,7 +19,7 @@ import java.util.concurrent.PriorityBlockingQueue;
  * @since 0.2.1
  */
 @ThreadSafe
-public class PriorityScheduler extends DuplicateRemovedScheduler implements MonitorableScheduler {
+public class PriorityScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DrainableScheduler {
 
     public static final int INITIAL_CAPACITY = 5;
 
@@ -45,6 +47,7 @@ public class PriorityScheduler extends DuplicateRemovedScheduler implements Moni
 
     @Override
     public void pushWhenNoDuplicate(Request request, Task task) {
+        telemetry.onPush(request);
         if (request.getPriority() == 0) {
             noPriorityQueue.add(request);
         } else if (request.getPriority() > 0) {
@@ -55,7 +58,41 @@ public class PriorityScheduler extends DuplicateRemovedScheduler implements Moni
     }
 
     @Override
-    public synchronized Request poll(Task task) {
+    protected void pushAllWhenNoDuplicate(List<Request> requests, Task task) {
+        List<Request> plus = new ArrayList<Request>();
+        List<Request> none = new ArrayList<Request>();
+        List<Request> minus = new ArrayList<Request>();
+        for (Request request : requests) {
+            telemetry.onPush(request);
+            if (request.getPriority() == 0) {
+                none.add(request);
+            } else if (request.getPriority() > 0) {
+                plus.add(request);
+            } else {
+                minus.add(request);
+            }
+        }
+        if (!plus.isEmpty()) {
+            priorityQueuePlus.addAll(plus);
+        }
+        if (!none.isEmpty()) {
+            noPriorityQueue.addAll(none);
+        }
+        if (!minus.isEmpty()) {
+            priorityQueueMinus.addAll(minus);
+        }
+    }
+
+    @Override
+    public Request poll(Task task) {
+        Request request = pollQueues();
+        if (request != null) {
+            telemetry.onPoll(request);
+        }
+        return request;
+    }
+
+    private synchronized Request pollQueues() {
         Request poll = priorityQueuePlus.poll();
         if (poll != null) {
             return poll;
@@ -67,9 +104,37 @@ public class PriorityScheduler extends DuplicateRemovedScheduler implements Moni
         return priorityQueueMinus.poll();
     }
 
+    @Override
+    public synchronized List<Request> pollBatch(Task task, int maxSize) {
+        List<Request> requests = new ArrayList<Request>(Math.min(maxSize, 16));
+        priorityQueuePlus.drainTo(requests, maxSize);
+        if (requests.size() < maxSize) {
+            noPriorityQueue.drainTo(requests, maxSize - requests.size());
+        }
+        if (requests.size() < maxSize) {
+            priorityQueueMinus.drainTo(requests, maxSize - requests.size());
+        }
+        for (Request request : requests) {
+            telemetry.onPoll(request);
+        }
+        return requests;
+    }
+
+    @Override
+    public synchronized List<Request> drain(Task task) {
+        List<Request> requests = new ArrayList<Request>();
+        priorityQueuePlus.drainTo(requests);
+        noPriorityQueue.drainTo(requests);
+        priorityQueueMinus.drainTo(requests);
+        for (Request request : requests) {
+            telemetry.onRemove(request);
+        }
+        return requests;
+    }
+
     @Override
     public long getLeftRequestsCount(Task task) {
-        return noPriorityQueue.size();
+        return noPriorityQueue.size() + priorityQueuePlus.size() + priorityQueueMinus.size();
     }
 
     @Override
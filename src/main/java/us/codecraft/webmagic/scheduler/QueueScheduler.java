@@ -5,6 +5,8 @@ import org.apache.http.annotation.ThreadSafe;
 import us.codecraft.webmagic.Request;
 import us.codecraft.webmagic.Task;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
@@ -18,15 +20,41 @@ import java.util.concurrent.atomic.AtomicLong;
  * @since 0.1.0
  */
 @ThreadSafe
-public class QueueScheduler implements MonitorableScheduler, Cloneable {
+public class QueueScheduler implements TelemetryScheduler, DrainableScheduler, BatchScheduler, Cloneable {
 
     private BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
     
     private AtomicLong count = new AtomicLong(0);
+
+    private final TelemetryRecorder telemetry = new TelemetryRecorder();
     
     @Override
     public synchronized Request poll(Task task) {
-        return queue.poll();
+        Request request = queue.poll();
+        if (request != null) {
+            telemetry.onPoll(request);
+        }
+        return request;
+    }
+
+    @Override
+    public synchronized List<Request> drain(Task task) {
+        List<Request> requests = new ArrayList<Request>();
+        queue.drainTo(requests);
+        for (Request request : requests) {
+            telemetry.onRemove(request);
+        }
+        return requests;
+    }
+
+    @Override
+    public synchronized List<Request> pollBatch(Task task, int maxSize) {
+        List<Request> requests = new ArrayList<Request>(Math.min(maxSize, 16));
+        queue.drainTo(requests, maxSize);
+        for (Request request : requests) {
+            telemetry.onPoll(request);
+        }
+        return requests;
     }
 
     @Override
@@ -38,12 +66,43 @@ public class QueueScheduler implements MonitorableScheduler, Cloneable {
     public long getTotalRequestsCount(Task task) {
         return count.get();
     }
+
+    /**
+     * Whether to record ages from push to poll in telemetry, false by default.<br>
+     * The push time is kept in extras of queued requests, and removed when they are polled.
+     *
+     * @param ageRecorded
+     * @return this
+     */
+    public QueueScheduler setAgeRecorded(boolean ageRecorded) {
+        telemetry.setAgeRecorded(ageRecorded);
+        return this;
+    }
+
+    @Override
+    public SchedulerTelemetry getTelemetry(Task task) {
+        return telemetry.snapshot(getLeftRequestsCount(task), getTotalRequestsCount(task));
+    }
     
 	@Override
 	public void push(Request request, Task task) {
 		if(request.getExtra(Request.CYCLE_TRIED_TIMES) == null){
 			count.incrementAndGet();
 		}
+		telemetry.onPush(request);
 		queue.add(request);
 	}
+
+	@Override
+	public void pushAll(List<Request> requests, Task task) {
+		int newCount = 0;
+		for (Request request : requests) {
+			if(request.getExtra(Request.CYCLE_TRIED_TIMES) == null){
+				newCount++;
+			}
+			telemetry.onPush(request);
+		}
+		count.addAndGet(newCount);
+		queue.addAll(requests);
+	}
 }
@@ -0,0 +1,225 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.scheduler.component.DuplicateRemover;
+import us.codecraft.webmagic.utils.RequestCodec;
+
+/**
+ * Snapshot of the frontier and the duplicate check state of a scheduler, written to a local file
+ * so that a stopped spider can resume from it. <br>
+ * Taking a snapshot removes all requests from the scheduler.
+ * Requests are moved between the scheduler and the file chunk by chunk, so a frontier spilled to disk is never loaded into memory as a whole.
+ * The duplicate check state is only kept when the {@link DuplicateRemover} is Serializable.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see us.codecraft.webmagic.Spider#stopAndCheckpoint(long, File)
+ */
+public class SchedulerSnapshot implements Serializable {
+
+    private static final long serialVersionUID = -3290564120870741934L;
+
+    private File file;
+
+    private DuplicateRemover duplicateRemover;
+
+    private long createTime;
+
+    private int requestCount;
+
+    //request数量在文件中的位置
+    private int countOffset;
+
+    private SchedulerSnapshot() {
+    }
+
+    /**
+     * Take all requests left and the duplicate check state of scheduler, and write them to file.<br>
+     * The duplicate check state is written by java serialization and requests by {@link RequestCodec}.
+     *
+     * @param scheduler
+     * @param task
+     * @param file
+     * @return snapshot written
+     * @throws IOException
+     */
+    public static SchedulerSnapshot write(Scheduler scheduler, Task task, File file) throws IOException {
+        SchedulerSnapshot snapshot = new SchedulerSnapshot();
+        snapshot.file = file;
+        snapshot.createTime = System.currentTimeMillis();
+        if (scheduler instanceof DuplicateRemovedScheduler) {
+            DuplicateRemover duplicateRemover = ((DuplicateRemovedScheduler) scheduler).getDuplicateRemover();
+            if (duplicateRemover instanceof Serializable) {
+                snapshot.duplicateRemover = duplicateRemover;
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeLong(snapshot.createTime);
+            if (snapshot.duplicateRemover == null) {
+                out.writeInt(0);
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream os = new ObjectOutputStream(bytes);
+                os.writeObject(snapshot.duplicateRemover);
+                os.close();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+            snapshot.countOffset = out.size();
+            //数量在写完request后回填
+            out.writeInt(0);
+            RequestCodec.Encoder encoder = new RequestCodec.Encoder(out);
+            if (scheduler instanceof DrainableScheduler) {
+                List<Request> requests;
+                while (!(requests = ((DrainableScheduler) scheduler).drain(task, DrainableScheduler.DRAIN_SIZE)).isEmpty()) {
+                    for (Request request : requests) {
+                        snapshot.writeRequest(encoder, request);
+                    }
+                }
+            } else {
+                Request request;
+                while ((request = scheduler.poll(task)) != null) {
+                    snapshot.writeRequest(encoder, request);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmp, "rw");
+        try {
+            randomAccessFile.seek(snapshot.countOffset);
+            randomAccessFile.writeInt(snapshot.requestCount);
+        } finally {
+            randomAccessFile.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can not replace snapshot " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can not rename snapshot " + tmp + " to " + file);
+        }
+        return snapshot;
+    }
+
+    private void writeRequest(RequestCodec.Encoder encoder, Request request) throws IOException {
+        //代理和有状态连接只在当前进程有效
+        request.clean();
+        encoder.write(request);
+        requestCount++;
+    }
+
+    /**
+     * Read the duplicate check state and count of requests from file, requests are read by {@link #restore(Scheduler, Task)}.
+     *
+     * @param file
+     * @return snapshot
+     * @throws IOException
+     */
+    public static SchedulerSnapshot read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            SchedulerSnapshot snapshot = new SchedulerSnapshot();
+            snapshot.file = file;
+            snapshot.createTime = in.readLong();
+            int length = in.readInt();
+            if (length > 0) {
+                byte[] data = new byte[length];
+                in.readFully(data);
+                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(data));
+                try {
+                    snapshot.duplicateRemover = (DuplicateRemover) is.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("invalid snapshot " + file, e);
+                } finally {
+                    is.close();
+                }
+            }
+            snapshot.countOffset = 12 + length;
+            snapshot.requestCount = in.readInt();
+            return snapshot;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Push requests back to scheduler chunk by chunk, and replace its duplicate check state if kept.<br>
+     * Requests are pushed without duplicate check, for they are already in the duplicate check state.
+     *
+     * @param scheduler
+     * @param task
+     * @throws IOException
+     */
+    public void restore(Scheduler scheduler, Task task) throws IOException {
+        DuplicateRemovedScheduler restoredScheduler = null;
+        if (scheduler instanceof DuplicateRemovedScheduler && duplicateRemover != null) {
+            restoredScheduler = (DuplicateRemovedScheduler) scheduler;
+            restoredScheduler.setDuplicateRemover(duplicateRemover);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            in.skipBytes(countOffset + 4);
+            RequestCodec.Decoder decoder = new RequestCodec.Decoder(in);
+            List<Request> requests = new ArrayList<Request>(Math.min(requestCount, DrainableScheduler.DRAIN_SIZE));
+            for (int i = 0; i < requestCount; i++) {
+                Request request = decoder.read();
+                if (request == null) {
+                    throw new IOException("invalid snapshot " + file + ", " + requestCount + " requests expected but " + i + " found");
+                }
+                requests.add(request);
+                if (requests.size() >= DrainableScheduler.DRAIN_SIZE || i == requestCount - 1) {
+                    push(scheduler, restoredScheduler, requests, task);
+                    requests = new ArrayList<Request>(Math.min(requestCount - i - 1, DrainableScheduler.DRAIN_SIZE));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void push(Scheduler scheduler, DuplicateRemovedScheduler restoredScheduler, List<Request> requests, Task task) {
+        if (restoredScheduler != null) {
+            restoredScheduler.pushRestored(requests, task);
+            return;
+        }
+        for (Request request : requests) {
+            scheduler.push(request, task);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    public DuplicateRemover getDuplicateRemover() {
+        return duplicateRemover;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+}
@@ -0,0 +1,230 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the frontier of a scheduler for monitor.<br>
+ * Counters are cumulative since the scheduler is created, use rate methods with a former snapshot
+ * to get rates in that period. Ages are the time from push to poll, in the upper bound of power of 2 buckets.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see TelemetryScheduler
+ */
+public class SchedulerTelemetry {
+
+    private final long time;
+
+    private final long startTime;
+
+    private final long leftRequestsCount;
+
+    private final long totalRequestsCount;
+
+    private final long pushedCount;
+
+    private final long polledCount;
+
+    private final long duplicateCount;
+
+    private final long removedCount;
+
+    private final long blockedCount;
+
+    private final long droppedCount;
+
+    private final long spilledCount;
+
+    private final long rejectedCount;
+
+    private final Map<String, Long> hostDepths;
+
+    private final Map<Long, Long> priorityDepths;
+
+    private final long ageP50;
+
+    private final long ageP90;
+
+    private final long ageP99;
+
+    private final long ageMax;
+
+    public SchedulerTelemetry(long time, long startTime, long leftRequestsCount, long totalRequestsCount,
+                              long pushedCount, long polledCount, long duplicateCount, long removedCount,
+                              long blockedCount, long droppedCount, long spilledCount, long rejectedCount,
+                              Map<String, Long> hostDepths, Map<Long, Long> priorityDepths,
+                              long ageP50, long ageP90, long ageP99, long ageMax) {
+        this.time = time;
+        this.startTime = startTime;
+        this.leftRequestsCount = leftRequestsCount;
+        this.totalRequestsCount = totalRequestsCount;
+        this.pushedCount = pushedCount;
+        this.polledCount = polledCount;
+        this.duplicateCount = duplicateCount;
+        this.removedCount = removedCount;
+        this.blockedCount = blockedCount;
+        this.droppedCount = droppedCount;
+        this.spilledCount = spilledCount;
+        this.rejectedCount = rejectedCount;
+        this.hostDepths = Collections.unmodifiableMap(hostDepths);
+        this.priorityDepths = Collections.unmodifiableMap(priorityDepths);
+        this.ageP50 = ageP50;
+        this.ageP90 = ageP90;
+        this.ageP99 = ageP99;
+        this.ageMax = ageMax;
+    }
+
+    /**
+     * Get pushes per second since the former snapshot, or since the scheduler is created if former is null.
+     *
+     * @param former former snapshot
+     * @return pushes per second
+     */
+    public double getPushRate(SchedulerTelemetry former) {
+        return rate(pushedCount, former == null ? 0 : former.pushedCount, former);
+    }
+
+    public double getPollRate(SchedulerTelemetry former) {
+        return rate(polledCount, former == null ? 0 : former.polledCount, former);
+    }
+
+    public double getDuplicateRate(SchedulerTelemetry former) {
+        return rate(duplicateCount, former == null ? 0 : former.duplicateCount, former);
+    }
+
+    private double rate(long count, long formerCount, SchedulerTelemetry former) {
+        long period = time - (former == null ? startTime : former.time);
+        if (period <= 0) {
+            return 0;
+        }
+        return (count - formerCount) * 1000.0 / period;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return left requests, -1 if the scheduler can not count it
+     */
+    public long getLeftRequestsCount() {
+        return leftRequestsCount;
+    }
+
+    /**
+     * @return total requests, -1 if the scheduler can not count it
+     */
+    public long getTotalRequestsCount() {
+        return totalRequestsCount;
+    }
+
+    public long getPushedCount() {
+        return pushedCount;
+    }
+
+    public long getPolledCount() {
+        return polledCount;
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return requests left the queue without poll, such as dropped or drained
+     */
+    public long getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * @return pushed requests kept in memory, not spilled to disk
+     */
+    public long getAdmittedCount() {
+        return pushedCount - spilledCount;
+    }
+
+    /**
+     * @return pushes waiting for room in a full queue
+     */
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * @return requests dropped because the queue is full
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return pushed requests spilled to disk because memory is full
+     */
+    public long getSpilledCount() {
+        return spilledCount;
+    }
+
+    /**
+     * @return requests rejected because the queue is full
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return requests queued by host, hosts without request are excluded
+     */
+    public Map<String, Long> getHostDepths() {
+        return hostDepths;
+    }
+
+    /**
+     * @return requests queued by priority, priorities without request are excluded
+     */
+    public Map<Long, Long> getPriorityDepths() {
+        return priorityDepths;
+    }
+
+    /**
+     * @return median time from push to poll in ms, -1 if nothing is polled
+     */
+    public long getAgeP50() {
+        return ageP50;
+    }
+
+    public long getAgeP90() {
+        return ageP90;
+    }
+
+    public long getAgeP99() {
+        return ageP99;
+    }
+
+    public long getAgeMax() {
+        return ageMax;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerTelemetry{" +
+                "left=" + leftRequestsCount +
+                ", total=" + totalRequestsCount +
+                ", pushed=" + pushedCount +
+                ", polled=" + polledCount +
+                ", duplicate=" + duplicateCount +
+                ", removed=" + removedCount +
+                ", blocked=" + blockedCount +
+                ", dropped=" + droppedCount +
+                ", spilled=" + spilledCount +
+                ", rejected=" + rejectedCount +
+                ", hosts=" + hostDepths.size() +
+                ", priorityDepths=" + priorityDepths +
+                ", ageP50=" + ageP50 +
+                ", ageP90=" + ageP90 +
+                ", ageP99=" + ageP99 +
+                ", ageMax=" + ageMax +
+                '}';
+    }
+}
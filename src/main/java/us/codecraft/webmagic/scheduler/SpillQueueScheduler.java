@@ -0,0 +1,295 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.utils.MappedBufferUtils;
+import us.codecraft.webmagic.utils.RequestCodec;
+
+/**
+ * FIFO scheduler which keeps a small head of requests in memory and spills the rest to disk.<br>
+ * Spilled requests are appended to memory-mapped segment files and read back sequentially,
+ * a segment is unmapped and deleted once it is read over, so the frontier is limited by disk rather than heap. <br>
+ * Requests continuing a request chain always stay in memory, for they hold proxies and connections of this process.
+ * Segment files of a former run in the directory are deleted on start.
+ *
+ * @author code4crafter@gmail.com
+ * @since 0.5.3
+ */
+@ThreadSafe
+public class SpillQueueScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DrainableScheduler, Closeable {
+
+    public static final int DEFAULT_MEMORY_CAPACITY = 10000;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    //记录长度为0表示segment结束
+    private static final int END_OF_SEGMENT = 0;
+
+    private final File directory;
+
+    private final int memoryCapacity;
+
+    private final int segmentSize;
+
+    private final ArrayDeque<Request> head = new ArrayDeque<Request>();
+
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    private long nextSegmentId = 0;
+
+    private long spilled = 0;
+
+    private AtomicLong count = new AtomicLong(0);
+
+    public SpillQueueScheduler(String directory) {
+        this(directory, DEFAULT_MEMORY_CAPACITY, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory directory of segment files
+     * @param memoryCapacity max requests kept in memory
+     * @param segmentSize size of each segment file in bytes
+     */
+    public SpillQueueScheduler(String directory, int memoryCapacity, int segmentSize) {
+        if (memoryCapacity <= 0) {
+            throw new IllegalArgumentException("memoryCapacity should be more than one!");
+        }
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize should not be less than 1024!");
+        }
+        this.directory = new File(directory);
+        this.memoryCapacity = memoryCapacity;
+        this.segmentSize = segmentSize;
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IllegalStateException("can not create directory " + directory);
+        }
+        deleteSegmentFiles();
+    }
+
+    @Override
+    protected synchronized void pushWhenNoDuplicate(Request request, Task task) {
+        if (request.getExtra(Request.CYCLE_TRIED_TIMES) == null) {
+            count.incrementAndGet();
+        }
+        telemetry.onPush(request);
+        if (request.isChainContinuation()) {
+            head.addFirst(request);
+            return;
+        }
+        //已经有溢出的request时,新的request也要写入磁盘,保证先进先出
+        if (spilled == 0 && head.size() < memoryCapacity) {
+            head.addLast(request);
+            return;
+        }
+        try {
+            spill(encode(request));
+        } catch (IOException e) {
+            logger.error("spill request {} error, keep it in memory", request.getUrl(), e);
+            head.addLast(request);
+        }
+    }
+
+    @Override
+    public synchronized Request poll(Task task) {
+        if (head.isEmpty() && spilled > 0) {
+            load(Math.max(1, memoryCapacity / 2));
+        }
+        Request request = head.pollFirst();
+        if (request != null) {
+            telemetry.onPoll(request);
+        }
+        return request;
+    }
+
+    @Override
+    public List<Request> drain(Task task) {
+        return drain(task, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Take out requests in memory first, then load at most maxSize spilled requests,
+     * so the spilled frontier is never loaded into memory as a whole.
+     */
+    @Override
+    public synchronized List<Request> drain(Task task, int maxSize) {
+        if (head.isEmpty() && spilled > 0) {
+            load(maxSize);
+        }
+        List<Request> requests = new ArrayList<Request>(Math.min(head.size(), maxSize));
+        while (requests.size() < maxSize && !head.isEmpty()) {
+            requests.add(head.pollFirst());
+        }
+        for (Request request : requests) {
+            telemetry.onRemove(request);
+        }
+        return requests;
+    }
+
+    @Override
+    public synchronized long getLeftRequestsCount(Task task) {
+        return head.size() + spilled;
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return count.get();
+    }
+
+    /**
+     * Get count of requests spilled to disk.
+     *
+     * @return spilled count
+     */
+    public synchronized long getSpilledCount() {
+        return spilled;
+    }
+
+    /**
+     * Get count of segment files in use.
+     *
+     * @return segment count
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    protected byte[] encode(Request request) throws IOException {
+        return RequestCodec.encode(request);
+    }
+
+    protected Request decode(byte[] bytes) throws IOException {
+        return RequestCodec.decode(bytes);
+    }
+
+    private void spill(byte[] record) throws IOException {
+        Segment tail = segments.peekLast();
+        //留出写结束标记的空间
+        if (tail == null || tail.buffer.remaining() < record.length + 8) {
+            if (tail != null) {
+                tail.buffer.putInt(END_OF_SEGMENT);
+            }
+            tail = newSegment(Math.max(segmentSize, record.length + 8));
+            segments.addLast(tail);
+        }
+        tail.buffer.putInt(record.length);
+        tail.buffer.put(record);
+        tail.written = tail.buffer.position();
+        spilled++;
+    }
+
+    private void load(int max) {
+        int loaded = 0;
+        while (loaded < max && spilled > 0) {
+            Segment segment = segments.peekFirst();
+            if (segment.readPosition >= segment.written) {
+                if (segment == segments.peekLast()) {
+                    break;
+                }
+                deleteSegment(segments.pollFirst());
+                continue;
+            }
+            int length = segment.readBuffer.getInt(segment.readPosition);
+            if (length == END_OF_SEGMENT) {
+                segment.readPosition = segment.written;
+                continue;
+            }
+            byte[] record = new byte[length];
+            segment.readBuffer.position(segment.readPosition + 4);
+            segment.readBuffer.get(record);
+            segment.readPosition += 4 + length;
+            spilled--;
+            try {
+                head.addLast(decode(record));
+                loaded++;
+            } catch (IOException e) {
+                logger.error("read spilled request error, skip it", e);
+            }
+        }
+        Segment segment = segments.peekFirst();
+        if (segment != null && segment.readPosition >= segment.written && segment != segments.peekLast()) {
+            deleteSegment(segments.pollFirst());
+        }
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + (nextSegmentId++) + SEGMENT_SUFFIX);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(file, buffer);
+        } finally {
+            //关闭文件后映射仍然有效
+            randomAccessFile.close();
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        //映射未释放时Linux不回收磁盘空间,Windows无法删除
+        MappedBufferUtils.unmap(segment.buffer);
+        if (!segment.file.delete()) {
+            logger.warn("delete segment {} fail", segment.file);
+        }
+    }
+
+    private void deleteSegmentFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Drop spilled requests and delete segment files.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            deleteSegment(segment);
+        }
+        segments.clear();
+        spilled = 0;
+    }
+
+    private static class Segment {
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private final ByteBuffer readBuffer;
+
+        private int written;
+
+        private int readPosition;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.readBuffer = buffer.duplicate();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.utils.UrlUtils;
+
+/**
+ * Records requests entering and leaving a scheduler for {@link SchedulerTelemetry}.<br>
+ * Counters are {@link LongAdder} and depths are kept per host and per priority, so recording takes no global lock.
+ * A host or priority is removed from the depths once it has no request left. <br>
+ * Ages are only recorded when enabled by {@link #setAgeRecorded(boolean)}, for the push time has to be stored
+ * in the request as {@link Request#PUSH_TIME}, where it is persisted with the request by disk schedulers.
+ * It is removed when the request is polled, so processors and pipelines never see it,
+ * and the age of a request when polled is counted in a histogram of power of 2 buckets.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class TelemetryRecorder {
+
+    /**
+     * bucket i counts ages in [2^(i-1), 2^i) ms, bucket 0 counts age 0
+     */
+    private static final int AGE_BUCKETS = 40;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final LongAdder pushed = new LongAdder();
+
+    private final LongAdder polled = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    private final LongAdder removed = new LongAdder();
+
+    private final LongAdder blocked = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder spilled = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder[] ages = new LongAdder[AGE_BUCKETS];
+
+    private final ConcurrentMap<String, Long> hostDepths = new ConcurrentHashMap<String, Long>();
+
+    private final ConcurrentMap<Long, Long> priorityDepths = new ConcurrentHashMap<Long, Long>();
+
+    /**
+     * sum of depth and delta, null to remove the key when it is 0
+     */
+    private static final BiFunction<Long, Long, Long> ADD_DEPTH = new BiFunction<Long, Long, Long>() {
+        @Override
+        public Long apply(Long depth, Long delta) {
+            long sum = depth + delta;
+            return sum == 0 ? null : sum;
+        }
+    };
+
+    private volatile boolean ageRecorded = false;
+
+    public TelemetryRecorder() {
+        for (int i = 0; i < AGE_BUCKETS; i++) {
+            ages[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Whether to store push time in requests for ages, false by default.
+     *
+     * @param ageRecorded
+     * @return this
+     */
+    public TelemetryRecorder setAgeRecorded(boolean ageRecorded) {
+        this.ageRecorded = ageRecorded;
+        return this;
+    }
+
+    public boolean isAgeRecorded() {
+        return ageRecorded;
+    }
+
+    /**
+     * A request enters the queue.
+     *
+     * @param request
+     */
+    public void onPush(Request request) {
+        if (ageRecorded) {
+            request.putExtra(Request.PUSH_TIME, System.currentTimeMillis());
+        }
+        pushed.increment();
+        hostDepths.merge(getHost(request), 1L, ADD_DEPTH);
+        priorityDepths.merge(request.getPriority(), 1L, ADD_DEPTH);
+    }
+
+    /**
+     * A request is rejected by duplicate check.
+     */
+    public void onDuplicate() {
+        duplicates.increment();
+    }
+
+    /**
+     * A request is polled from the queue.
+     *
+     * @param request
+     */
+    public void onPoll(Request request) {
+        polled.increment();
+        leave(request);
+        //不记录age的scheduler不改动request,如BoundedScheduler内部的SpillQueueScheduler
+        Object pushTime = ageRecorded ? removePushTime(request) : null;
+        if (pushTime != null) {
+            long age = System.currentTimeMillis() - ((Number) pushTime).longValue();
+            ages[bucket(age)].increment();
+        }
+    }
+
+    /**
+     * A request leaves the queue without being polled, such as dropped or drained.
+     *
+     * @param request
+     */
+    public void onRemove(Request request) {
+        removed.increment();
+        leave(request);
+        if (ageRecorded) {
+            removePushTime(request);
+        }
+    }
+
+    /**
+     * A push waits for room in a full queue.
+     */
+    public void onBlock() {
+        blocked.increment();
+    }
+
+    /**
+     * A request is dropped because the queue is full, call {@link #onRemove(Request)} too if it was queued.
+     */
+    public void onDrop() {
+        dropped.increment();
+    }
+
+    /**
+     * A pushed request is spilled to disk instead of memory.
+     */
+    public void onSpill() {
+        spilled.increment();
+    }
+
+    /**
+     * A request is rejected because the queue is full.
+     */
+    public void onReject() {
+        rejected.increment();
+    }
+
+    private void leave(Request request) {
+        hostDepths.merge(getHost(request), -1L, ADD_DEPTH);
+        priorityDepths.merge(request.getPriority(), -1L, ADD_DEPTH);
+    }
+
+    private static Object removePushTime(Request request) {
+        if (request.getExtras() == null) {
+            return null;
+        }
+        return request.getExtras().remove(Request.PUSH_TIME);
+    }
+
+    private static int bucket(long age) {
+        if (age <= 0) {
+            return 0;
+        }
+        return Math.min(AGE_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(age));
+    }
+
+    private static String getHost(Request request) {
+        String host = UrlUtils.getDomain(request.getUrl());
+        return host == null ? "" : host;
+    }
+
+    /**
+     * Take a snapshot.
+     *
+     * @param left left requests of scheduler, -1 if unknown
+     * @param total total requests of scheduler, -1 if unknown
+     * @return snapshot
+     */
+    public SchedulerTelemetry snapshot(long left, long total) {
+        long[] ageCounts = new long[AGE_BUCKETS];
+        for (int i = 0; i < AGE_BUCKETS; i++) {
+            ageCounts[i] = ages[i].sum();
+        }
+        return new SchedulerTelemetry(System.currentTimeMillis(), startTime, left, total,
+                pushed.sum(), polled.sum(), duplicates.sum(), removed.sum(),
+                blocked.sum(), dropped.sum(), spilled.sum(), rejected.sum(),
+                depths(hostDepths), depths(priorityDepths),
+                percentile(ageCounts, 0.5), percentile(ageCounts, 0.9), percentile(ageCounts, 0.99), percentile(ageCounts, 1));
+    }
+
+    private static <K> Map<K, Long> depths(ConcurrentMap<K, Long> counters) {
+        Map<K, Long> depths = new HashMap<K, Long>();
+        for (Map.Entry<K, Long> entry : counters.entrySet()) {
+            //poll先于push记录时会短暂为负
+            if (entry.getValue() > 0) {
+                depths.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * @return upper bound in ms of the bucket containing the quantile, -1 if nothing is polled
+     */
+    private static long percentile(long[] ageCounts, double quantile) {
+        long total = 0;
+        for (long count : ageCounts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int i = 0; i < ageCounts.length; i++) {
+            seen += ageCounts[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return (1L << (ageCounts.length - 1)) - 1;
+    }
+}
@@ -0,0 +1,22 @@
+package us.codecraft.webmagic.scheduler;
+
+import us.codecraft.webmagic.Task;
+
+/**
+ * The scheduler which reports telemetry of its frontier for monitor.<br>
+ * All built-in schedulers implement it with a {@link TelemetryRecorder}.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public interface TelemetryScheduler extends MonitorableScheduler {
+
+    /**
+     * Get a snapshot of telemetry, recording it takes no global lock of scheduler.
+     *
+     * @param task the task of spider
+     * @return snapshot
+     */
+    public SchedulerTelemetry getTelemetry(Task task);
+
+}
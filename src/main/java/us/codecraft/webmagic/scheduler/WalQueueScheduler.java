@@ -0,0 +1,600 @@
+package us.codecraft.webmagic.scheduler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.scheduler.component.DuplicateRemover;
+import us.codecraft.webmagic.utils.RequestCodec;
+
+/**
+ * FIFO scheduler whose frontier survives a crash.<br>
+ * Every push and every ack of a polled request is appended to a write-ahead log, which is replayed on the first
+ * push or poll, so the {@link DuplicateRemover} set after construction gets the duplicate check state,
+ * and requests polled but never acked are polled again. <br>
+ * Fsyncs are group committed by a background thread: a push waits for the next fsync, which covers all records
+ * written since the former one, so durability costs little throughput. <br>
+ * The log is compacted to the requests not acked and the duplicate check state once it grows large.
+ * The duplicate check state of acked requests is only kept by compaction when the {@link DuplicateRemover} is Serializable,
+ * and only restored when the same class of DuplicateRemover is set.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+@ThreadSafe
+public class WalQueueScheduler extends DuplicateRemovedScheduler implements TelemetryScheduler, DrainableScheduler, AckScheduler, Closeable {
+
+    public static final String LOG_FILE_NAME = "frontier.wal";
+
+    public static final long DEFAULT_COMPACT_THRESHOLD = 64 * 1024 * 1024;
+
+    private static final byte PUSH = 1;
+
+    private static final byte ACK = 2;
+
+    private static final byte CHECKPOINT = 3;
+
+    //type(1) + id(8) + length(4)
+    private static final int RECORD_HEADER_SIZE = 13;
+
+    private final File file;
+
+    private final long syncInterval;
+
+    private final long compactThreshold;
+
+    private boolean syncOnPush = true;
+
+    private final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+
+    /**
+     * requests pushed but not acked, by id
+     */
+    private final Map<Long, Request> pending = new LinkedHashMap<Long, Request>();
+
+    private final Set<Long> polled = new HashSet<Long>();
+
+    private FileOutputStream fileOutputStream;
+
+    private DataOutputStream out;
+
+    private long nextId = 0;
+
+    private long logSize = 0;
+
+    private long records = 0;
+
+    private long nextCompactSize;
+
+    private long writeSeq = 0;
+
+    private long syncedSeq = 0;
+
+    /**
+     * error of flush or fsync, pushes fail after it for records may be lost
+     */
+    private IOException syncError;
+
+    private boolean replayed = false;
+
+    private volatile boolean closed = false;
+
+    private final Thread syncThread;
+
+    private AtomicLong count = new AtomicLong(0);
+
+    public WalQueueScheduler(String directory) throws IOException {
+        this(directory, 10, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param directory directory of log file
+     * @param syncInterval max time between two fsyncs in ms
+     * @param compactThreshold log size in bytes to start compaction
+     * @throws IOException
+     */
+    public WalQueueScheduler(String directory, long syncInterval, long compactThreshold) throws IOException {
+        File dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create directory " + directory);
+        }
+        this.file = new File(dir, LOG_FILE_NAME);
+        this.syncInterval = syncInterval;
+        this.compactThreshold = compactThreshold;
+        this.nextCompactSize = compactThreshold;
+        syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncLoop();
+            }
+        }, "wal-sync-" + dir.getName());
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Whether push waits for fsync, true by default.<br>
+     * When false, requests pushed in the last syncInterval may be lost on crash.
+     *
+     * @param syncOnPush
+     * @return this
+     */
+    public WalQueueScheduler setSyncOnPush(boolean syncOnPush) {
+        this.syncOnPush = syncOnPush;
+        return this;
+    }
+
+    @Override
+    public void push(Request request, Task task) {
+        replayIfNeeded(task);
+        super.push(request, task);
+    }
+
+    @Override
+    public void pushAll(List<Request> requests, Task task) {
+        replayIfNeeded(task);
+        super.pushAll(requests, task);
+    }
+
+    @Override
+    public void pushRestored(List<Request> requests, Task task) {
+        replayIfNeeded(task);
+        super.pushRestored(requests, task);
+    }
+
+    @Override
+    protected synchronized void pushWhenNoDuplicate(Request request, Task task) {
+        checkClosed();
+        try {
+            appendPush(request);
+            awaitSync(writeSeq);
+        } catch (IOException e) {
+            throw new IllegalStateException("write ahead log error", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Append all requests before waiting for one fsync.
+     */
+    @Override
+    protected synchronized void pushAllWhenNoDuplicate(List<Request> requests, Task task) {
+        checkClosed();
+        try {
+            for (Request request : requests) {
+                appendPush(request);
+            }
+            awaitSync(writeSeq);
+        } catch (IOException e) {
+            throw new IllegalStateException("write ahead log error", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void appendPush(Request request) throws IOException {
+        if (request.getExtra(Request.CYCLE_TRIED_TIMES) == null) {
+            count.incrementAndGet();
+        }
+        //重新加入的request(如循环重试)由新的记录代替,
+        //入队的是副本,原来的对象保留poll时的id,其ack不会误确认被其他线程poll的副本
+        Long oldId = (Long) request.getExtra(Request.WAL_ID);
+        if (oldId != null && polled.remove(oldId)) {
+            pending.remove(oldId);
+            append(ACK, oldId, null);
+            request = copy(request);
+        }
+        telemetry.onPush(request);
+        long id = nextId++;
+        request.putExtra(Request.WAL_ID, id);
+        append(PUSH, id, encode(request));
+        pending.put(id, request);
+        queue.addLast(request);
+    }
+
+    private void awaitSync(long seq) throws IOException, InterruptedException {
+        notifyAll();
+        while (syncOnPush && syncedSeq < seq && !closed) {
+            checkSyncError();
+            wait(syncInterval);
+        }
+        checkSyncError();
+    }
+
+    private void checkSyncError() throws IOException {
+        if (syncError != null) {
+            throw new IOException("fsync write ahead log error", syncError);
+        }
+    }
+
+    @Override
+    public synchronized Request poll(Task task) {
+        replayIfNeeded(task);
+        Request request = queue.pollFirst();
+        if (request != null) {
+            polled.add((Long) request.getExtra(Request.WAL_ID));
+            telemetry.onPoll(request);
+        }
+        return request;
+    }
+
+    /**
+     * Acks after close are ignored, the requests are polled again after restart.
+     */
+    @Override
+    public synchronized void ack(Request request, Task task) {
+        Long id = (Long) request.getExtra(Request.WAL_ID);
+        if (closed || id == null || !polled.remove(id)) {
+            return;
+        }
+        pending.remove(id);
+        try {
+            append(ACK, id, null);
+            if (logSize >= nextCompactSize && records > pending.size() * 2) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("write ahead log error", e);
+        }
+    }
+
+    /**
+     * Take out requests not polled, they are acked as handed over.
+     */
+    @Override
+    public synchronized List<Request> drain(Task task) {
+        replayIfNeeded(task);
+        List<Request> requests = new ArrayList<Request>(queue);
+        queue.clear();
+        try {
+            for (Request request : requests) {
+                Long id = (Long) request.getExtra(Request.WAL_ID);
+                pending.remove(id);
+                append(ACK, id, null);
+                telemetry.onRemove(request);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("write ahead log error", e);
+        }
+        return requests;
+    }
+
+    @Override
+    public synchronized long getLeftRequestsCount(Task task) {
+        replayIfNeeded(task);
+        return queue.size();
+    }
+
+    @Override
+    public long getTotalRequestsCount(Task task) {
+        return count.get();
+    }
+
+    /**
+     * Get count of requests polled but not acked.
+     *
+     * @return unacked count
+     */
+    public synchronized int getUnackedCount() {
+        return polled.size();
+    }
+
+    public synchronized long getLogSize() {
+        return logSize;
+    }
+
+    private void append(byte type, long id, byte[] data) throws IOException {
+        int length = data == null ? 0 : data.length;
+        out.writeByte(type);
+        out.writeLong(id);
+        out.writeInt(length);
+        if (length > 0) {
+            out.write(data);
+        }
+        logSize += RECORD_HEADER_SIZE + length;
+        records++;
+        writeSeq++;
+    }
+
+    private void syncLoop() {
+        while (!closed) {
+            long seq;
+            FileOutputStream stream;
+            synchronized (this) {
+                while (!closed && syncedSeq == writeSeq) {
+                    try {
+                        wait(syncInterval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                seq = writeSeq;
+                stream = fileOutputStream;
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    onSyncError(e);
+                    return;
+                }
+            }
+            //fsync时不持有锁,期间写入的记录由下一次fsync提交
+            IOException error = null;
+            try {
+                stream.getChannel().force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                if (error == null) {
+                    if (seq > syncedSeq) {
+                        syncedSeq = seq;
+                    }
+                } else if (stream == fileOutputStream) {
+                    onSyncError(error);
+                    return;
+                }
+                //压缩时旧文件已关闭,压缩后的文件已fsync并推进了syncedSeq
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Records written are not durable, so the sync thread stops and pushes waiting for it fail.
+     */
+    private synchronized void onSyncError(IOException e) {
+        logger.error("sync write ahead log error", e);
+        syncError = e;
+        notifyAll();
+    }
+
+    private synchronized void replayIfNeeded(Task task) {
+        if (replayed || closed) {
+            return;
+        }
+        try {
+            replay(task);
+            openLog();
+        } catch (IOException e) {
+            throw new IllegalStateException("write ahead log error", e);
+        }
+        replayed = true;
+    }
+
+    private void replay(Task task) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long validSize = 0;
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (;;) {
+                byte type;
+                long id;
+                byte[] data;
+                try {
+                    type = in.readByte();
+                    id = in.readLong();
+                    int length = in.readInt();
+                    if (length < 0 || validSize + RECORD_HEADER_SIZE + length > fileLength) {
+                        break;
+                    }
+                    data = new byte[length];
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (type == PUSH) {
+                    Request request = decode(data);
+                    pending.put(id, request);
+                    getDuplicateRemover().isDuplicate(request, task);
+                    nextId = Math.max(nextId, id + 1);
+                } else if (type == ACK) {
+                    pending.remove(id);
+                } else if (type == CHECKPOINT) {
+                    restoreDuplicateRemover(data);
+                } else {
+                    logger.warn("invalid record type {} in write ahead log at {}", type, validSize);
+                    break;
+                }
+                validSize += RECORD_HEADER_SIZE + data.length;
+                records++;
+            }
+        } catch (IOException e) {
+            logger.warn("invalid record in write ahead log at {}", validSize, e);
+        } finally {
+            in.close();
+        }
+        //截掉崩溃时未写完的记录
+        if (validSize < file.length()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(validSize);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+        logSize = validSize;
+        nextCompactSize = Math.max(compactThreshold, logSize * 2);
+        queue.addAll(pending.values());
+        for (Request request : queue) {
+            telemetry.onPush(request);
+        }
+        logger.info("replay write ahead log {}, {} requests left", file, pending.size());
+    }
+
+    private void restoreDuplicateRemover(byte[] data) throws IOException {
+        DuplicateRemover duplicateRemover = (DuplicateRemover) deserialize(data);
+        if (duplicateRemover.getClass() != getDuplicateRemover().getClass()) {
+            logger.warn("duplicate remover in write ahead log is {} but {} is set, only requests not acked are checked",
+                    duplicateRemover.getClass().getName(), getDuplicateRemover().getClass().getName());
+            return;
+        }
+        setDuplicateRemover(duplicateRemover);
+    }
+
+    /**
+     * Copy the request to be queued again, extras are copied for the new id.
+     */
+    private Request copy(Request request) {
+        Request copy = new Request(request.getUrl());
+        copy.setMethod(request.getMethod());
+        if (request.getFieldRuleId() != null) {
+            copy.setFieldRuleId(request.getFieldRuleId());
+        }
+        copy.setPriority(request.getPriority());
+        copy.setExtras(new HashMap<String, Object>(request.getExtras()));
+        copy.setInheritFields(request.getInheritFields());
+        copy.setHeaders(request.getHeaders());
+        copy.setNextRequest(request.getNextRequest());
+        return copy;
+    }
+
+    private void openLog() throws IOException {
+        fileOutputStream = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+    }
+
+    private void compact() throws IOException {
+        out.flush();
+        File tmp = new File(file.getPath() + ".compact");
+        FileOutputStream tmpOutputStream = new FileOutputStream(tmp);
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(tmpOutputStream));
+        long size = 0;
+        long compactRecords = 0;
+        try {
+            DuplicateRemover duplicateRemover = getDuplicateRemover();
+            if (duplicateRemover instanceof Serializable) {
+                byte[] data = serialize(duplicateRemover);
+                tmpOut.writeByte(CHECKPOINT);
+                tmpOut.writeLong(-1);
+                tmpOut.writeInt(data.length);
+                tmpOut.write(data);
+                size += RECORD_HEADER_SIZE + data.length;
+                compactRecords++;
+            }
+            for (Map.Entry<Long, Request> entry : pending.entrySet()) {
+                byte[] data = encode(entry.getValue());
+                tmpOut.writeByte(PUSH);
+                tmpOut.writeLong(entry.getKey());
+                tmpOut.writeInt(data.length);
+                tmpOut.write(data);
+                size += RECORD_HEADER_SIZE + data.length;
+                compactRecords++;
+            }
+            tmpOut.flush();
+            tmpOutputStream.getChannel().force(false);
+        } finally {
+            tmpOut.close();
+        }
+        out.close();
+        if (!tmp.renameTo(file)) {
+            openLog();
+            throw new IOException("can not rename " + tmp + " to " + file);
+        }
+        openLog();
+        logSize = size;
+        records = compactRecords;
+        nextCompactSize = Math.max(compactThreshold, logSize * 2);
+        //压缩后的日志已经fsync
+        syncedSeq = writeSeq;
+        notifyAll();
+        logger.info("compact write ahead log {} to {} bytes", file, size);
+    }
+
+    /**
+     * Encode request, proxy and statusful connection are dropped for they are only valid in this process.
+     */
+    protected byte[] encode(Request request) throws IOException {
+        return RequestCodec.encode(request);
+    }
+
+    protected Request decode(byte[] data) throws IOException {
+        return RequestCodec.decode(data);
+    }
+
+    private byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bytes);
+        os.writeObject(object);
+        os.close();
+        return bytes.toByteArray();
+    }
+
+    private Object deserialize(byte[] data) throws IOException {
+        ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return is.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            is.close();
+        }
+    }
+
+    private void checkClosed() {
+        if (closed) {
+            throw new IllegalStateException("WalQueueScheduler is closed!");
+        }
+    }
+
+    /**
+     * Stop the sync thread, then flush and fsync the log.<br>
+     * Spider closes its scheduler when it exits.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        //等待同步线程退出后再关闭文件,避免其fsync已关闭的channel
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (out == null) {
+                return;
+            }
+            out.flush();
+            fileOutputStream.getChannel().force(false);
+            out.close();
+        }
+    }
+}
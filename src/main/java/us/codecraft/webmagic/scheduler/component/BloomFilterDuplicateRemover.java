@@ -5,16 +5,23 @@ import com.google.common.hash.Funnels;
 import us.codecraft.webmagic.Request;
 import us.codecraft.webmagic.Task;
 
+import java.io.Serializable;
 import java.nio.charset.Charset;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * BloomFilterDuplicateRemover for huge number of urls.
+ * BloomFilterDuplicateRemover for huge number of urls.<br>
+ * Checks are serialized for Guava's BloomFilter is not thread-safe,
+ * use {@link ConcurrentBloomFilterDuplicateRemover} for many threads.
  *
  * @author code4crafer@gmail.com
  * @since 0.5.1
  */
-public class BloomFilterDuplicateRemover implements DuplicateRemover {
+public class BloomFilterDuplicateRemover implements DuplicateRemover, Serializable {
+
+    private static final long serialVersionUID = -2510474628103570128L;
+
 
     private int expectedInsertions;
 
@@ -42,10 +49,10 @@ public class BloomFilterDuplicateRemover implements DuplicateRemover {
         return BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), expectedInsertions, fpp);
     }
 
-    private final BloomFilter<CharSequence> bloomFilter;
+    private volatile BloomFilter<CharSequence> bloomFilter;
 
     @Override
-    public boolean isDuplicate(Request request, Task task) {
+    public synchronized boolean isDuplicate(Request request, Task task) {
         boolean isDuplicate = bloomFilter.mightContain(getUrl(request));
         if (!isDuplicate) {
             bloomFilter.put(getUrl(request));
@@ -54,13 +61,22 @@ public class BloomFilterDuplicateRemover implements DuplicateRemover {
         return isDuplicate;
     }
 
+    @Override
+    public synchronized boolean[] isDuplicate(List<Request> requests, Task task) {
+        boolean[] duplicates = new boolean[requests.size()];
+        for (int i = 0; i < duplicates.length; i++) {
+            duplicates[i] = isDuplicate(requests.get(i), task);
+        }
+        return duplicates;
+    }
+
     protected String getUrl(Request request) {
         return request.getUrl();
     }
 
     @Override
-    public void resetDuplicateCheck(Task task) {
-        rebuildBloomFilter();
+    public synchronized void resetDuplicateCheck(Task task) {
+        bloomFilter = rebuildBloomFilter();
     }
 
     @Override
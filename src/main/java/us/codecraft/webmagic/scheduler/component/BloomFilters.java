@@ -0,0 +1,42 @@
+package us.codecraft.webmagic.scheduler.component;
+
+/**
+ * Sizing and hashing shared by the bloom filters in this package, the same as Guava's BloomFilter.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+final class BloomFilters {
+
+    private BloomFilters() {
+    }
+
+    /**
+     * @param n expected insertions
+     * @param p false positive probability
+     * @return bits needed
+     */
+    static long optimalNumOfBits(long n, double p) {
+        return (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    }
+
+    /**
+     * @param n expected insertions
+     * @param m bits
+     * @return hash functions needed
+     */
+    static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * Read 8 bytes from start as a little endian long, as Guava's HashCode.asLong.
+     */
+    static long lowerEight(byte[] bytes, int start) {
+        long value = 0;
+        for (int i = start + 7; i >= start; i--) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,142 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe bloom filter with an atomic test-and-set.<br>
+ * Bits are kept in an AtomicLongArray and set by CAS, checking a key and adding a key already contained take no lock.
+ * Adding a new key takes one of 256 striped locks chosen by its hash, so threads adding different keys only contend
+ * when their keys fall into the same stripe. The same key always takes the same lock, so of threads adding one key
+ * at the same time exactly one is told the key is new, which CAS alone can not tell when each thread sets some of the bits. <br>
+ * Hashing is murmur3 128 of utf-8 key, with the two halves combined as Guava's MURMUR128_MITZ_64.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class ConcurrentBloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 3618294733506297450L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final AtomicLongArray bits;
+
+    private final long numBits;
+
+    private final int numHashFunctions;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * @param expectedInsertions the number of expected insertions
+     * @param fpp the desired false positive probability
+     */
+    public ConcurrentBloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions should be positive and fpp should be in (0, 1)!");
+        }
+        long words = (Math.max(64, BloomFilters.optimalNumOfBits(expectedInsertions, fpp)) + 63) / 64;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bloom filter of " + words + " words is too large!");
+        }
+        this.bits = new AtomicLongArray((int) words);
+        this.numBits = words * 64;
+        this.numHashFunctions = BloomFilters.optimalNumOfHashFunctions(expectedInsertions, numBits);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Add key if it might not be contained.
+     *
+     * @param key
+     * @return true if the key is new, false if it might be added before
+     */
+    public boolean putIfAbsent(CharSequence key) {
+        byte[] bytes = HASH_FUNCTION.hashString(key, UTF_8).asBytes();
+        long hash1 = BloomFilters.lowerEight(bytes, 0);
+        long hash2 = BloomFilters.lowerEight(bytes, 8);
+        if (mightContain(hash1, hash2)) {
+            return false;
+        }
+        ReentrantLock lock = locks[(int) ((hash1 >>> 32) & (LOCK_STRIPES - 1))];
+        lock.lock();
+        try {
+            boolean changed = false;
+            long combinedHash = hash1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                changed |= setBit((combinedHash & Long.MAX_VALUE) % numBits);
+                combinedHash += hash2;
+            }
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean mightContain(CharSequence key) {
+        byte[] bytes = HASH_FUNCTION.hashString(key, UTF_8).asBytes();
+        return mightContain(BloomFilters.lowerEight(bytes, 0), BloomFilters.lowerEight(bytes, 8));
+    }
+
+    private boolean mightContain(long hash1, long hash2) {
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = (combinedHash & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+            combinedHash += hash2;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the bit is changed by this call
+     */
+    private boolean setBit(long index) {
+        int wordIndex = (int) (index >>> 6);
+        long mask = 1L << index;
+        for (;;) {
+            long word = bits.get(wordIndex);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(wordIndex, word, word | mask)) {
+                return true;
+            }
+        }
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    /**
+     * Get estimated false positive probability by bits set.
+     *
+     * @return estimated fpp
+     */
+    public double expectedFpp() {
+        long bitCount = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            bitCount += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) bitCount / numBits, numHashFunctions);
+    }
+}
@@ -0,0 +1,70 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BloomFilterDuplicateRemover for huge number of urls checked by many threads.<br>
+ * Backed by {@link ConcurrentBloomFilter}, an url pushed by many threads at the same time is taken as new exactly once,
+ * and threads checking different urls seldom block each other.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class ConcurrentBloomFilterDuplicateRemover implements DuplicateRemover, Serializable {
+
+    private static final long serialVersionUID = -7416027285043592851L;
+
+    private final long expectedInsertions;
+
+    private final double fpp;
+
+    private volatile ConcurrentBloomFilter bloomFilter;
+
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    public ConcurrentBloomFilterDuplicateRemover(long expectedInsertions) {
+        this(expectedInsertions, 0.01);
+    }
+
+    /**
+     * @param expectedInsertions the number of expected insertions
+     * @param fpp the desired false positive probability (must be positive and less than 1.0)
+     */
+    public ConcurrentBloomFilterDuplicateRemover(long expectedInsertions, double fpp) {
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.bloomFilter = new ConcurrentBloomFilter(expectedInsertions, fpp);
+    }
+
+    @Override
+    public boolean isDuplicate(Request request, Task task) {
+        if (bloomFilter.putIfAbsent(getUrl(request))) {
+            counter.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    protected String getUrl(Request request) {
+        return request.getUrl();
+    }
+
+    @Override
+    public void resetDuplicateCheck(Task task) {
+        bloomFilter = new ConcurrentBloomFilter(expectedInsertions, fpp);
+        counter.set(0);
+    }
+
+    @Override
+    public int getTotalRequestsCount(Task task) {
+        return counter.get();
+    }
+
+    public ConcurrentBloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+}
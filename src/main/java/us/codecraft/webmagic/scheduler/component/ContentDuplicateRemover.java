@@ -0,0 +1,42 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import us.codecraft.webmagic.Page;
+import us.codecraft.webmagic.Task;
+
+/**
+ * Remove pages whose content is duplicate of a page downloaded before, such as the same article under many urls.<br>
+ * Spider checks a page after download, and remembers it only after it is processed successfully,
+ * so a page failing in PageProcessor does not make its duplicates skipped. A duplicate page skips PageProcessor and pipelines.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see us.codecraft.webmagic.Spider#setContentDuplicateRemover(ContentDuplicateRemover)
+ */
+public interface ContentDuplicateRemover {
+
+    /**
+     * Check whether the content of page is duplicate of a page remembered.
+     *
+     * @param page downloaded page
+     * @param task
+     * @return true if duplicate
+     */
+    public boolean isDuplicate(Page page, Task task);
+
+    /**
+     * Remember the content of page processed successfully.
+     *
+     * @param page page checked by {@link #isDuplicate(Page, Task)}
+     * @param task
+     */
+    public void remember(Page page, Task task);
+
+    /**
+     * Get count of duplicate pages for monitor.
+     *
+     * @param task
+     * @return duplicate count
+     */
+    public long getDuplicateCount(Task task);
+
+}
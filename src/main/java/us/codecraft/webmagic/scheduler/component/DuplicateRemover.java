@@ -1,5 +1,7 @@
 package us.codecraft.webmagic.scheduler.component;
 
+import java.util.List;
+
 import us.codecraft.webmagic.Request;
 import us.codecraft.webmagic.Task;
 
@@ -19,6 +21,23 @@ public interface DuplicateRemover {
      */
     public boolean isDuplicate(Request request, Task task);
 
+    /**
+     * Check whether each request of the batch is duplicate, in order, one by one by default.<br>
+     * Override it to check the whole batch under one lock.
+     *
+     * @param requests requests
+     * @param task
+     * @return duplicate flags in the order of requests
+     * @since 0.5.3
+     */
+    public default boolean[] isDuplicate(List<Request> requests, Task task) {
+        boolean[] duplicates = new boolean[requests.size()];
+        for (int i = 0; i < duplicates.length; i++) {
+            duplicates[i] = isDuplicate(requests.get(i), task);
+        }
+        return duplicates;
+    }
+
     /**
      * Reset duplicate check.
      * @param task
@@ -0,0 +1,195 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+import java.io.Serializable;
+
+/**
+ * Duplicate remover keeping a 64-bit fingerprint of each url instead of the url itself.<br>
+ * Fingerprints are stored in open addressing long arrays split into stripes with their own locks,
+ * taking 8 to 16 bytes each url with no object per url, and the check allocates nothing. <br>
+ * The url is canonicalized while hashing: scheme and host are lower-cased and the fragment is ignored.
+ * Two different urls share a fingerprint with a chance of about n^2/2^65 for n urls, the latter is then taken as duplicate.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class FingerprintDuplicateRemover implements DuplicateRemover, Serializable {
+
+    private static final long serialVersionUID = -1853964503417721652L;
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes;
+
+    private final int stripeShift;
+
+    public FingerprintDuplicateRemover() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes count of stripes, rounded up to power of 2, more stripes for more threads
+     */
+    public FingerprintDuplicateRemover(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(size);
+    }
+
+    @Override
+    public boolean isDuplicate(Request request, Task task) {
+        return !add(fingerprint(getUrl(request)));
+    }
+
+    protected String getUrl(Request request) {
+        return request.getUrl();
+    }
+
+    /**
+     * Add fingerprint.
+     *
+     * @param fingerprint
+     * @return true if the fingerprint is not added before
+     */
+    public boolean add(long fingerprint) {
+        if (fingerprint == EMPTY) {
+            fingerprint = 1;
+        }
+        //高位选stripe,低位选槽位
+        Stripe stripe = stripes.length == 1 ? stripes[0] : stripes[(int) (fingerprint >>> stripeShift)];
+        return stripe.add(fingerprint);
+    }
+
+    /**
+     * Hash url to 64 bits, lower-casing scheme and host and ignoring fragment, without allocation.
+     *
+     * @param url
+     * @return fingerprint
+     */
+    public static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        int length = url.length();
+        int hostEnd = url.indexOf("://");
+        if (hostEnd >= 0) {
+            int pathStart = url.indexOf('/', hostEnd + 3);
+            hostEnd = pathStart < 0 ? length : pathStart;
+        }
+        int i = 0;
+        for (; i < length; i++) {
+            char c = url.charAt(i);
+            if (c == '#') {
+                break;
+            }
+            if (i < hostEnd && c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        return mix(hash ^ i);
+    }
+
+    /**
+     * finalizer of murmur3, spreading all bits
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public void resetDuplicateCheck(Task task) {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public int getTotalRequestsCount(Task task) {
+        long count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.size;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+    /**
+     * Get memory of all tables.
+     *
+     * @return memory in bytes
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.table.length * 8L;
+        }
+        return bytes;
+    }
+
+    private static class Stripe implements Serializable {
+
+        private static final long serialVersionUID = 5273306812983405618L;
+
+        private long[] table = new long[INITIAL_STRIPE_CAPACITY];
+
+        private volatile int size;
+
+        private synchronized boolean add(long fingerprint) {
+            if (insert(table, fingerprint)) {
+                size++;
+                //负载超过0.75时扩容
+                if (size > (table.length >>> 2) * 3) {
+                    resize();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private static boolean insert(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int slot = (int) fingerprint & mask;
+            for (;;) {
+                long value = table[slot];
+                if (value == EMPTY) {
+                    table[slot] = fingerprint;
+                    return true;
+                }
+                if (value == fingerprint) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length << 1];
+            for (long value : table) {
+                if (value != EMPTY) {
+                    insert(newTable, value);
+                }
+            }
+            table = newTable;
+        }
+
+        private synchronized void clear() {
+            table = new long[INITIAL_STRIPE_CAPACITY];
+            size = 0;
+        }
+    }
+}
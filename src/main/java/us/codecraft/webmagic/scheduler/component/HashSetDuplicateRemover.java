@@ -4,13 +4,17 @@ import com.google.common.collect.Sets;
 import us.codecraft.webmagic.Request;
 import us.codecraft.webmagic.Task;
 
+import java.io.Serializable;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author code4crafer@gmail.com
  */
-public class HashSetDuplicateRemover implements DuplicateRemover {
+public class HashSetDuplicateRemover implements DuplicateRemover, Serializable {
+
+    private static final long serialVersionUID = 4398612870925402377L;
+
 
     private Set<String> urls = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
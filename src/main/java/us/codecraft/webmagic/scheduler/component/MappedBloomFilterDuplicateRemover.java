@@ -0,0 +1,337 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+import us.codecraft.webmagic.utils.MappedBufferUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Bloom filter whose bit array is a memory-mapped file, so the duplicate check state survives restarts
+ * without loading and lives off heap.<br>
+ * The file starts with a header recording the hash strategy, hash functions, bits and fpp,
+ * an existing file is reopened with its own header whatever the constructor arguments are. <br>
+ * Dirty pages are flushed by a background thread every flushInterval, and on {@link #close()}.
+ * Urls added after the last flush may be lost on crash, and are then crawled again. <br>
+ * The file is locked exclusively while open, so it can not be shared by two spiders, and is unmapped on close.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class MappedBloomFilterDuplicateRemover implements DuplicateRemover, Closeable {
+
+    private static final int MAGIC = 0x574d4246;
+
+    private static final int VERSION = 1;
+
+    /**
+     * murmur3 128 of utf-8 url, with the two 64 bits halves combined as Guava's MURMUR128_MITZ_64
+     */
+    public static final int HASH_MURMUR3_128_MITZ_64 = 1;
+
+    //magic(4) version(4) hashStrategy(4) numHashFunctions(4) numBits(8) expectedInsertions(8) fpp(8) count(8)
+    private static final int HEADER_SIZE = 64;
+
+    private static final int COUNT_OFFSET = 40;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileLock fileLock;
+
+    private final MappedByteBuffer buffer;
+
+    private final long numBits;
+
+    private final int numHashFunctions;
+
+    private final long expectedInsertions;
+
+    private final double fpp;
+
+    private int counter;
+
+    private boolean dirty;
+
+    private volatile boolean closed;
+
+    //force和unmap互斥,unmap之后再访问buffer会使JVM崩溃
+    private final Object forceLock = new Object();
+
+    private boolean unmapped;
+
+    private final Thread flushThread;
+
+    public MappedBloomFilterDuplicateRemover(String file, int expectedInsertions) throws IOException {
+        this(file, expectedInsertions, 0.01, 1000);
+    }
+
+    /**
+     * @param file file of bit array, created if not exists
+     * @param expectedInsertions the number of expected insertions, ignored when file exists
+     * @param fpp the desired false positive probability, ignored when file exists
+     * @param flushInterval interval of flushing dirty pages in ms
+     * @throws IOException
+     */
+    public MappedBloomFilterDuplicateRemover(String file, long expectedInsertions, double fpp, final long flushInterval) throws IOException {
+        this.file = new File(file);
+        boolean exists = this.file.exists() && this.file.length() >= HEADER_SIZE;
+        this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+        boolean opened = false;
+        try {
+            this.fileLock = lock(randomAccessFile.getChannel());
+            if (exists) {
+                randomAccessFile.seek(0);
+                if (randomAccessFile.readInt() != MAGIC || randomAccessFile.readInt() != VERSION) {
+                    throw new IOException("invalid bloom filter file " + file);
+                }
+                int hashStrategy = randomAccessFile.readInt();
+                if (hashStrategy != HASH_MURMUR3_128_MITZ_64) {
+                    throw new IOException("unsupported hash strategy " + hashStrategy + " of bloom filter file " + file);
+                }
+                this.numHashFunctions = randomAccessFile.readInt();
+                this.numBits = randomAccessFile.readLong();
+                this.expectedInsertions = randomAccessFile.readLong();
+                this.fpp = randomAccessFile.readDouble();
+            } else {
+                if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+                    throw new IllegalArgumentException("expectedInsertions should be positive and fpp should be in (0, 1)!");
+                }
+                //按long对齐
+                this.numBits = (Math.max(64, BloomFilters.optimalNumOfBits(expectedInsertions, fpp)) + 63) / 64 * 64;
+                this.numHashFunctions = BloomFilters.optimalNumOfHashFunctions(expectedInsertions, numBits);
+                this.expectedInsertions = expectedInsertions;
+                this.fpp = fpp;
+            }
+            long size = HEADER_SIZE + numBits / 8;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("bloom filter of " + numBits + " bits is too large to map!");
+            }
+            randomAccessFile.setLength(Math.max(size, randomAccessFile.length()));
+            this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            opened = true;
+        } finally {
+            if (!opened) {
+                //关闭文件同时释放锁
+                randomAccessFile.close();
+            }
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (exists) {
+            this.counter = (int) buffer.getLong(COUNT_OFFSET);
+            logger.info("open bloom filter {} with {} urls", file, counter);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, HASH_MURMUR3_128_MITZ_64);
+            buffer.putInt(12, numHashFunctions);
+            buffer.putLong(16, numBits);
+            buffer.putLong(24, this.expectedInsertions);
+            buffer.putDouble(32, this.fpp);
+            buffer.putLong(COUNT_OFFSET, 0);
+            buffer.force();
+        }
+        flushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(flushInterval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    flush();
+                }
+            }
+        }, "bloom-flush-" + this.file.getName());
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    private FileLock lock(FileChannel channel) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            //同一个JVM中已打开
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException("bloom filter file " + file + " is used by another duplicate remover");
+        }
+        return lock;
+    }
+
+    @Override
+    public boolean isDuplicate(Request request, Task task) {
+        byte[] bytes = HASH_FUNCTION.hashString(getUrl(request), UTF_8).asBytes();
+        synchronized (this) {
+            checkClosed();
+            return !add(bytes);
+        }
+    }
+
+    /**
+     * Hash the whole batch outside the lock, then set bits under one lock.
+     */
+    @Override
+    public boolean[] isDuplicate(List<Request> requests, Task task) {
+        byte[][] hashes = new byte[requests.size()][];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = HASH_FUNCTION.hashString(getUrl(requests.get(i)), UTF_8).asBytes();
+        }
+        boolean[] duplicates = new boolean[hashes.length];
+        synchronized (this) {
+            checkClosed();
+            for (int i = 0; i < hashes.length; i++) {
+                duplicates[i] = !add(hashes[i]);
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * @return true if any bit is changed
+     */
+    private boolean add(byte[] hash) {
+        long hash1 = BloomFilters.lowerEight(hash, 0);
+        long hash2 = BloomFilters.lowerEight(hash, 8);
+        boolean added = false;
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            added |= setBit((combinedHash & Long.MAX_VALUE) % numBits);
+            combinedHash += hash2;
+        }
+        if (added) {
+            counter++;
+            dirty = true;
+        }
+        return added;
+    }
+
+    protected String getUrl(Request request) {
+        return request.getUrl();
+    }
+
+    /**
+     * @return true if the bit is changed
+     */
+    private boolean setBit(long index) {
+        int offset = HEADER_SIZE + (int) (index >>> 6) * 8;
+        long word = buffer.getLong(offset);
+        long mask = 1L << index;
+        if ((word & mask) != 0) {
+            return false;
+        }
+        buffer.putLong(offset, word | mask);
+        return true;
+    }
+
+    /**
+     * Write count to header and force dirty pages to disk.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (!dirty || closed) {
+                return;
+            }
+            buffer.putLong(COUNT_OFFSET, counter);
+            dirty = false;
+        }
+        //force时不持有锁,期间写入的位由下一次flush提交
+        synchronized (forceLock) {
+            if (!unmapped) {
+                buffer.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void resetDuplicateCheck(Task task) {
+        checkClosed();
+        for (int offset = HEADER_SIZE; offset < buffer.capacity(); offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+        counter = 0;
+        dirty = true;
+    }
+
+    @Override
+    public synchronized int getTotalRequestsCount(Task task) {
+        return counter;
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    public double getFpp() {
+        return fpp;
+    }
+
+    /**
+     * Get estimated false positive probability with urls added so far.
+     *
+     * @return estimated fpp
+     */
+    public synchronized double getExpectedFpp() {
+        return Math.pow(1 - Math.exp(-(double) numHashFunctions * counter / numBits), numHashFunctions);
+    }
+
+    private void checkClosed() {
+        if (closed) {
+            throw new IllegalStateException("bloom filter " + file + " is closed!");
+        }
+    }
+
+    /**
+     * Flush, stop the flush thread, then unmap and unlock the file.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            buffer.putLong(COUNT_OFFSET, counter);
+            closed = true;
+        }
+        flushThread.interrupt();
+        synchronized (forceLock) {
+            buffer.force();
+            MappedBufferUtils.unmap(buffer);
+            unmapped = true;
+        }
+        try {
+            fileLock.release();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            logger.warn("close bloom filter file {} error", file, e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scalable bloom filter for an unknown number of urls.<br>
+ * A new filter layer is added when the last one is full, each layer larger than the former one
+ * and with a tighter false positive probability, so the overall false positive probability stays under fpp
+ * however many urls are added. <br>
+ * Memory grows with urls added, see {@link #getMemoryBytes()} and {@link #getExpectedFpp()}.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class ScalableBloomFilterDuplicateRemover implements DuplicateRemover, Serializable {
+
+    private static final long serialVersionUID = 6210392174362541573L;
+
+    public static final int DEFAULT_GROWTH = 2;
+
+    /**
+     * fpp of each layer is this ratio of the former one, layer 0 takes fpp * (1 - ratio) so the sum is under fpp
+     */
+    public static final double DEFAULT_TIGHTENING_RATIO = 0.5;
+
+    private final int initialCapacity;
+
+    private final double fpp;
+
+    private final int growth;
+
+    private final double tighteningRatio;
+
+    private List<Layer> layers;
+
+    private int counter;
+
+    public ScalableBloomFilterDuplicateRemover(int initialCapacity) {
+        this(initialCapacity, 0.01);
+    }
+
+    public ScalableBloomFilterDuplicateRemover(int initialCapacity, double fpp) {
+        this(initialCapacity, fpp, DEFAULT_GROWTH, DEFAULT_TIGHTENING_RATIO);
+    }
+
+    /**
+     * @param initialCapacity insertions of the first layer
+     * @param fpp the desired overall false positive probability
+     * @param growth capacity of each layer is growth times of the former one
+     * @param tighteningRatio fpp of each layer is this ratio of the former one, in (0, 1)
+     */
+    public ScalableBloomFilterDuplicateRemover(int initialCapacity, double fpp, int growth, double tighteningRatio) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity should be more than one!");
+        }
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp should be in (0, 1)!");
+        }
+        if (growth < 1) {
+            throw new IllegalArgumentException("growth should not be less than one!");
+        }
+        if (tighteningRatio <= 0 || tighteningRatio >= 1) {
+            throw new IllegalArgumentException("tighteningRatio should be in (0, 1)!");
+        }
+        this.initialCapacity = initialCapacity;
+        this.fpp = fpp;
+        this.growth = growth;
+        this.tighteningRatio = tighteningRatio;
+        reset();
+    }
+
+    @Override
+    public synchronized boolean isDuplicate(Request request, Task task) {
+        String url = getUrl(request);
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            if (layers.get(i).bloomFilter.mightContain(url)) {
+                return true;
+            }
+        }
+        Layer last = layers.get(layers.size() - 1);
+        if (last.count >= last.capacity) {
+            last = addLayer();
+        }
+        last.bloomFilter.put(url);
+        last.count++;
+        counter++;
+        return false;
+    }
+
+    @Override
+    public synchronized boolean[] isDuplicate(List<Request> requests, Task task) {
+        boolean[] duplicates = new boolean[requests.size()];
+        for (int i = 0; i < duplicates.length; i++) {
+            duplicates[i] = isDuplicate(requests.get(i), task);
+        }
+        return duplicates;
+    }
+
+    protected String getUrl(Request request) {
+        return request.getUrl();
+    }
+
+    private Layer addLayer() {
+        int index = layers.size();
+        long capacity = (long) (initialCapacity * Math.pow(growth, index));
+        double layerFpp = fpp * (1 - tighteningRatio) * Math.pow(tighteningRatio, index);
+        Layer layer = new Layer((int) Math.min(Integer.MAX_VALUE, capacity), layerFpp);
+        layers.add(layer);
+        return layer;
+    }
+
+    private void reset() {
+        layers = new ArrayList<Layer>();
+        counter = 0;
+        addLayer();
+    }
+
+    @Override
+    public synchronized void resetDuplicateCheck(Task task) {
+        reset();
+    }
+
+    @Override
+    public synchronized int getTotalRequestsCount(Task task) {
+        return counter;
+    }
+
+    public synchronized int getLayerCount() {
+        return layers.size();
+    }
+
+    /**
+     * Get estimated memory of bit arrays of all layers.
+     *
+     * @return memory in bytes
+     */
+    public synchronized long getMemoryBytes() {
+        long bits = 0;
+        for (Layer layer : layers) {
+            bits += BloomFilters.optimalNumOfBits(layer.capacity, layer.fpp);
+        }
+        return bits / 8;
+    }
+
+    /**
+     * Get estimated false positive probability of the filter with urls added so far.
+     *
+     * @return probability that an url never added is reported as duplicate
+     */
+    public synchronized double getExpectedFpp() {
+        double notFalsePositive = 1;
+        for (Layer layer : layers) {
+            notFalsePositive *= 1 - layer.bloomFilter.expectedFpp();
+        }
+        return 1 - notFalsePositive;
+    }
+
+    private static class Layer implements Serializable {
+
+        private static final long serialVersionUID = -4180572938462950123L;
+
+        private final BloomFilter<CharSequence> bloomFilter;
+
+        private final int capacity;
+
+        private final double fpp;
+
+        private int count;
+
+        private Layer(int capacity, double fpp) {
+            this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), capacity, fpp);
+            this.capacity = capacity;
+            this.fpp = fpp;
+        }
+    }
+}
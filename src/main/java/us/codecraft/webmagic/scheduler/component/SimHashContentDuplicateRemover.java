@@ -0,0 +1,313 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import us.codecraft.webmagic.Page;
+import us.codecraft.webmagic.Task;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content duplicate remover by SimHash of the text of page.<br>
+ * Navigation, header, footer, aside, form and script elements are removed from the text, so pages sharing
+ * the boilerplate of a site are not duplicate. The text is cut into shingles of 3 letters or digits, which works for languages with or without spaces,
+ * and pages whose 64-bit SimHash is within maxDistance bits of a page seen recently are duplicate. <br>
+ * Fingerprints are indexed by 4 bands of 16 bits, two fingerprints within 3 bits share at least one band,
+ * so a check only compares fingerprints in 4 buckets. The latest capacity fingerprints are kept, older ones are evicted.
+ * Pages with fewer than minShingles shingles, such as short api responses, are never duplicate.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class SimHashContentDuplicateRemover implements ContentDuplicateRemover {
+
+    private static final int BANDS = 4;
+
+    private static final int BAND_BITS = 16;
+
+    private static final int SHINGLE_SIZE = 3;
+
+    private static final String BOILERPLATE = "nav, header, footer, aside, form, script, style, noscript, iframe, "
+            + "[role=navigation], [role=banner], [role=contentinfo], [role=complementary]";
+
+    private final int capacity;
+
+    private final int maxDistance;
+
+    private int minShingles = 32;
+
+    /**
+     * ring of fingerprints, the oldest is replaced when full
+     */
+    private final long[] fingerprints;
+
+    private int size;
+
+    private int next;
+
+    /**
+     * indexes in ring of each band value, lists allocated when used
+     */
+    private final int[][][] buckets = new int[BANDS][1 << BAND_BITS][];
+
+    private final int[][] bucketSizes = new int[BANDS][1 << BAND_BITS];
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    /**
+     * fingerprint of the page checked last in this thread, reused when it is remembered
+     */
+    private final ThreadLocal<Fingerprint> lastFingerprint = new ThreadLocal<Fingerprint>();
+
+    public SimHashContentDuplicateRemover() {
+        this(100000, 3);
+    }
+
+    /**
+     * @param capacity count of recent fingerprints kept
+     * @param maxDistance max hamming distance of near duplicates, at most 3
+     */
+    public SimHashContentDuplicateRemover(int capacity, int maxDistance) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be more than one!");
+        }
+        if (maxDistance < 0 || maxDistance >= BANDS) {
+            throw new IllegalArgumentException("maxDistance should be in [0, " + (BANDS - 1) + "]");
+        }
+        this.capacity = capacity;
+        this.maxDistance = maxDistance;
+        this.fingerprints = new long[capacity];
+    }
+
+    /**
+     * Set min shingles of page to check, 32 by default.
+     *
+     * @param minShingles
+     * @return this
+     */
+    public SimHashContentDuplicateRemover setMinShingles(int minShingles) {
+        this.minShingles = minShingles;
+        return this;
+    }
+
+    @Override
+    public boolean isDuplicate(Page page, Task task) {
+        Fingerprint fingerprint = fingerprint(page);
+        if (fingerprint == null || !contains(fingerprint.value)) {
+            return false;
+        }
+        duplicateCount.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void remember(Page page, Task task) {
+        Fingerprint fingerprint = fingerprint(page);
+        if (fingerprint != null) {
+            checkAndAdd(fingerprint.value);
+        }
+    }
+
+    /**
+     * @return fingerprint, or null if the page is too short to check
+     */
+    private Fingerprint fingerprint(Page page) {
+        Fingerprint last = lastFingerprint.get();
+        if (last != null && last.page.get() == page) {
+            return last.shingles < minShingles ? null : last;
+        }
+        String text = getText(page);
+        if (text == null) {
+            return null;
+        }
+        long[] result = simHash(text);
+        Fingerprint fingerprint = new Fingerprint(page, result[0], result[1]);
+        lastFingerprint.set(fingerprint);
+        return fingerprint.shingles < minShingles ? null : fingerprint;
+    }
+
+    /**
+     * Get text of page to hash, the text of body without boilerplate by default.
+     *
+     * @param page
+     * @return text
+     */
+    protected String getText(Page page) {
+        if (page.getRawText() == null) {
+            return null;
+        }
+        Document document = page.getHtml().getDocument();
+        if (document.body() == null) {
+            return document.text();
+        }
+        //复制后再删除,页面的document还要交给PageProcessor
+        Element body = document.body().clone();
+        body.select(BOILERPLATE).remove();
+        return body.text();
+    }
+
+    /**
+     * Compute SimHash of text.
+     *
+     * @param text
+     * @return fingerprint and count of shingles
+     */
+    public static long[] simHash(CharSequence text) {
+        int[] weights = new int[64];
+        char c1 = 0, c2 = 0;
+        int letters = 0;
+        long shingles = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                continue;
+            }
+            c = Character.toLowerCase(c);
+            if (++letters >= SHINGLE_SIZE) {
+                long hash = mix(((long) c1 << 32) | ((long) c2 << 16) | c);
+                for (int bit = 0; bit < 64; bit++) {
+                    weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+                }
+                shingles++;
+            }
+            c1 = c2;
+            c2 = c;
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return new long[]{fingerprint, shingles};
+    }
+
+    public static int hammingDistance(long fingerprint1, long fingerprint2) {
+        return Long.bitCount(fingerprint1 ^ fingerprint2);
+    }
+
+    /**
+     * Check whether a near duplicate fingerprint is kept.
+     *
+     * @param fingerprint
+     * @return true if duplicate
+     */
+    public synchronized boolean contains(long fingerprint) {
+        for (int band = 0; band < BANDS; band++) {
+            int value = band(fingerprint, band);
+            int[] bucket = buckets[band][value];
+            for (int i = 0; i < bucketSizes[band][value]; i++) {
+                if (hammingDistance(fingerprints[bucket[i]], fingerprint) <= maxDistance) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a near duplicate fingerprint is kept, and keep the fingerprint if not.
+     *
+     * @param fingerprint
+     * @return true if duplicate
+     */
+    public synchronized boolean checkAndAdd(long fingerprint) {
+        if (contains(fingerprint)) {
+            return true;
+        }
+        if (size == capacity) {
+            //淘汰最旧的指纹
+            long oldest = fingerprints[next];
+            for (int band = 0; band < BANDS; band++) {
+                removeFromBucket(band, band(oldest, band), next);
+            }
+        } else {
+            size++;
+        }
+        fingerprints[next] = fingerprint;
+        for (int band = 0; band < BANDS; band++) {
+            addToBucket(band, band(fingerprint, band), next);
+        }
+        next = (next + 1) % capacity;
+        return false;
+    }
+
+    private void addToBucket(int band, int value, int index) {
+        int[] bucket = buckets[band][value];
+        int bucketSize = bucketSizes[band][value];
+        if (bucket == null) {
+            bucket = new int[2];
+        } else if (bucketSize == bucket.length) {
+            int[] newBucket = new int[bucket.length << 1];
+            System.arraycopy(bucket, 0, newBucket, 0, bucketSize);
+            bucket = newBucket;
+        }
+        bucket[bucketSize] = index;
+        buckets[band][value] = bucket;
+        bucketSizes[band][value] = bucketSize + 1;
+    }
+
+    private void removeFromBucket(int band, int value, int index) {
+        int[] bucket = buckets[band][value];
+        int bucketSize = bucketSizes[band][value];
+        for (int i = 0; i < bucketSize; i++) {
+            if (bucket[i] == index) {
+                bucket[i] = bucket[bucketSize - 1];
+                bucketSizes[band][value] = bucketSize - 1;
+                return;
+            }
+        }
+    }
+
+    private static int band(long fingerprint, int band) {
+        return (int) (fingerprint >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public long getDuplicateCount(Task task) {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Forget all fingerprints.
+     */
+    public synchronized void reset() {
+        for (int band = 0; band < BANDS; band++) {
+            for (int value = 0; value < (1 << BAND_BITS); value++) {
+                buckets[band][value] = null;
+                bucketSizes[band][value] = 0;
+            }
+        }
+        size = 0;
+        next = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static class Fingerprint {
+
+        private final WeakReference<Page> page;
+
+        private final long value;
+
+        private final long shingles;
+
+        private Fingerprint(Page page, long value, long shingles) {
+            this.page = new WeakReference<Page>(page);
+            this.value = value;
+            this.shingles = shingles;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package us.codecraft.webmagic.scheduler.component;
+
+import us.codecraft.webmagic.Request;
+import us.codecraft.webmagic.Task;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Duplicate remover letting urls be crawled again when their ttl is over, for periodic and incremental crawl.<br>
+ * Each url keeps its 64-bit fingerprint, the second it was last seen and the ttl rule it matched,
+ * 13 bytes a slot in open addressing arrays split into stripes. A url is duplicate if it is seen within the ttl of
+ * the first rule its url matches, such as list pages every 10 minutes, and rules not matched take the default ttl,
+ * never expiring by default. <br>
+ * At most maxEntries urls are kept. When a stripe is full, expired entries are removed,
+ * then the least recently seen ones if still full, and a url evicted before its ttl is over is crawled again.
+ * <pre>
+ * new TtlDuplicateRemover(10000000)
+ *         .addTtl("/list/", 10, TimeUnit.MINUTES)
+ *         .addTtl("/article/\\d+", TtlDuplicateRemover.NEVER, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class TtlDuplicateRemover implements DuplicateRemover, Serializable {
+
+    private static final long serialVersionUID = 4102956381733162459L;
+
+    /**
+     * ttl of urls never crawled again
+     */
+    public static final long NEVER = -1;
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+    private static final long EMPTY = 0;
+
+    private static final byte DEFAULT_RULE = -1;
+
+    private static final int MAX_RULES = 127;
+
+    private final long baseTime = System.currentTimeMillis();
+
+    private final Stripe[] stripes;
+
+    private final int stripeShift;
+
+    private volatile Pattern[] patterns = new Pattern[0];
+
+    private volatile int[] ttls = new int[0];
+
+    private volatile int defaultTtl = -1;
+
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    /**
+     * @param maxEntries max count of urls kept, at least 16 for each stripe
+     */
+    public TtlDuplicateRemover(int maxEntries) {
+        this(maxEntries, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param maxEntries max count of urls kept, at least 16 for each stripe
+     * @param stripes count of stripes, rounded up to power of 2, more stripes for more threads
+     */
+    public TtlDuplicateRemover(int maxEntries, int stripes) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries should be positive!");
+        }
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        int maxStripeSize = Math.max(16, maxEntries / size);
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe(maxStripeSize);
+        }
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(size);
+    }
+
+    /**
+     * Add ttl of urls matching regex, the rules are tried in the order added.
+     *
+     * @param urlRegex regex found in url
+     * @param ttl ttl, {@link #NEVER} for never crawled again
+     * @param unit unit of ttl
+     * @return this
+     */
+    public synchronized TtlDuplicateRemover addTtl(String urlRegex, long ttl, TimeUnit unit) {
+        if (patterns.length >= MAX_RULES) {
+            throw new IllegalArgumentException("at most " + MAX_RULES + " ttl rules!");
+        }
+        Pattern[] newPatterns = Arrays.copyOf(patterns, patterns.length + 1);
+        newPatterns[patterns.length] = Pattern.compile(urlRegex);
+        int[] newTtls = Arrays.copyOf(ttls, ttls.length + 1);
+        newTtls[ttls.length] = toSeconds(ttl, unit);
+        this.ttls = newTtls;
+        this.patterns = newPatterns;
+        return this;
+    }
+
+    /**
+     * Set ttl of urls matching no rule, {@link #NEVER} by default.
+     *
+     * @param ttl ttl, {@link #NEVER} for never crawled again
+     * @param unit unit of ttl
+     * @return this
+     */
+    public TtlDuplicateRemover setDefaultTtl(long ttl, TimeUnit unit) {
+        this.defaultTtl = toSeconds(ttl, unit);
+        return this;
+    }
+
+    private static int toSeconds(long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            return -1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, unit.toSeconds(ttl));
+    }
+
+    @Override
+    public boolean isDuplicate(Request request, Task task) {
+        String url = getUrl(request);
+        long fingerprint = FingerprintDuplicateRemover.fingerprint(url);
+        if (fingerprint == EMPTY) {
+            fingerprint = 1;
+        }
+        //高位选stripe,低位选槽位
+        Stripe stripe = stripes.length == 1 ? stripes[0] : stripes[(int) (fingerprint >>> stripeShift)];
+        return !stripe.seen(fingerprint, now(), matchRule(url));
+    }
+
+    protected String getUrl(Request request) {
+        return request.getUrl();
+    }
+
+    /**
+     * Get current time in ms, overridden in test.
+     *
+     * @return current time
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private int now() {
+        return (int) ((currentTimeMillis() - baseTime) / 1000);
+    }
+
+    private byte matchRule(String url) {
+        Pattern[] patterns = this.patterns;
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matcher(url).find()) {
+                return (byte) i;
+            }
+        }
+        return DEFAULT_RULE;
+    }
+
+    private boolean isExpired(int seen, byte rule, int now) {
+        int ttl = rule == DEFAULT_RULE ? defaultTtl : ttls[rule];
+        return ttl >= 0 && now - seen >= ttl;
+    }
+
+    /**
+     * Remove urls whose ttl is over in all stripes, which are crawled again whether removed or not.
+     *
+     * @return count of removed urls
+     */
+    public int purgeExpired() {
+        int now = now();
+        int removed = 0;
+        for (Stripe stripe : stripes) {
+            removed += stripe.purgeExpired(now);
+        }
+        return removed;
+    }
+
+    @Override
+    public void resetDuplicateCheck(Task task) {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public int getTotalRequestsCount(Task task) {
+        long count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.size;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+    /**
+     * Get count of urls evicted before their ttl is over because of maxEntries.
+     *
+     * @return evicted count
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Get memory of all tables.
+     *
+     * @return memory in bytes
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.keys.length * 13L;
+        }
+        return bytes;
+    }
+
+    private class Stripe implements Serializable {
+
+        private static final long serialVersionUID = -6245307851192374081L;
+
+        private final int maxSize;
+
+        private final int initialCapacity;
+
+        private long[] keys;
+
+        private int[] seens;
+
+        private byte[] rules;
+
+        private volatile int size;
+
+        private Stripe(int maxSize) {
+            this.maxSize = maxSize;
+            int capacity = 16;
+            while (capacity < INITIAL_STRIPE_CAPACITY && (capacity >>> 2) * 3 <= maxSize) {
+                capacity <<= 1;
+            }
+            this.initialCapacity = capacity;
+            clear();
+        }
+
+        /**
+         * @return true if the fingerprint is new or expired, and its time is updated
+         */
+        private synchronized boolean seen(long fingerprint, int now, byte rule) {
+            int slot = find(keys, fingerprint);
+            if (keys[slot] == fingerprint) {
+                if (!isExpired(seens[slot], rules[slot], now)) {
+                    return false;
+                }
+                seens[slot] = now;
+                rules[slot] = rule;
+                return true;
+            }
+            if (size >= maxSize) {
+                evict(now);
+            } else if (size >= (keys.length >>> 2) * 3) {
+                //负载超过0.75时扩容
+                rebuild(keys.length << 1, now, Integer.MIN_VALUE, 0, false);
+            }
+            slot = find(keys, fingerprint);
+            keys[slot] = fingerprint;
+            seens[slot] = now;
+            rules[slot] = rule;
+            size++;
+            return true;
+        }
+
+        /**
+         * @return slot of the fingerprint, or the empty slot to insert it
+         */
+        private int find(long[] keys, long fingerprint) {
+            int mask = keys.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (keys[slot] != EMPTY && keys[slot] != fingerprint) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Remove expired entries, then the least recently seen ones until 7/8 of maxSize left.
+         */
+        private void evict(int now) {
+            int[] alive = new int[size];
+            int aliveCount = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY && !isExpired(seens[i], rules[i], now)) {
+                    alive[aliveCount++] = seens[i];
+                }
+            }
+            int target = maxSize - (maxSize >>> 3);
+            int cutoff = Integer.MIN_VALUE;
+            int cutoffDrops = 0;
+            if (aliveCount > target) {
+                //按最后访问时间淘汰最旧的,同一秒的只淘汰需要的个数
+                Arrays.sort(alive, 0, aliveCount);
+                int last = aliveCount - target - 1;
+                cutoff = alive[last];
+                int first = last;
+                while (first > 0 && alive[first - 1] == cutoff) {
+                    first--;
+                }
+                cutoffDrops = last - first + 1;
+            }
+            rebuild(keys.length, now, cutoff, cutoffDrops, true);
+        }
+
+        private synchronized int purgeExpired(int now) {
+            int before = size;
+            rebuild(keys.length, now, Integer.MIN_VALUE, 0, true);
+            return before - size;
+        }
+
+        /**
+         * Rehash entries seen after cutoff and all but cutoffDrops seen at cutoff, skipping expired ones if asked.
+         */
+        private void rebuild(int capacity, int now, int cutoff, int cutoffDrops, boolean removeExpired) {
+            long[] newKeys = new long[capacity];
+            int[] newSeens = new int[capacity];
+            byte[] newRules = new byte[capacity];
+            int newSize = 0;
+            int expired = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == EMPTY) {
+                    continue;
+                }
+                if (removeExpired && isExpired(seens[i], rules[i], now)) {
+                    expired++;
+                    continue;
+                }
+                if (seens[i] < cutoff) {
+                    continue;
+                }
+                if (seens[i] == cutoff && cutoffDrops > 0) {
+                    cutoffDrops--;
+                    continue;
+                }
+                int slot = find(newKeys, keys[i]);
+                newKeys[slot] = keys[i];
+                newSeens[slot] = seens[i];
+                newRules[slot] = rules[i];
+                newSize++;
+            }
+            evictedCount.addAndGet(size - newSize - expired);
+            keys = newKeys;
+            seens = newSeens;
+            rules = newRules;
+            size = newSize;
+        }
+
+        private synchronized void clear() {
+            keys = new long[initialCapacity];
+            seens = new int[initialCapacity];
+            rules = new byte[initialCapacity];
+            size = 0;
+        }
+    }
+}
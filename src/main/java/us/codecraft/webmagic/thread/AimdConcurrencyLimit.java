@@ -0,0 +1,157 @@
+package us.codecraft.webmagic.thread;
+
+import us.codecraft.webmagic.proxy.Proxy;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Adaptive concurrency limit by AIMD (additive increase, multiplicative decrease).<br></br>
+ * The limit is increased by 1/limit for each healthy request while the pool is busy, about one each round trip,
+ * and cut by backoffRatio when a request is banned, times out or is slower than latencyThreshold.
+ * Drops of requests started before the last cut are ignored, so a burst of failures cuts the limit only once. <br></br>
+ * Used by {@link CountableThreadPool#setConcurrencyLimit(AimdConcurrencyLimit)}, samples are the status codes
+ * stored in {@link us.codecraft.webmagic.Request#STATUS_CODE} by downloader.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class AimdConcurrencyLimit {
+
+    private static final Set<Integer> DEFAULT_DROP_STATUS_CODE_SET = new HashSet<Integer>();
+
+    static {
+        DEFAULT_DROP_STATUS_CODE_SET.add(Proxy.ERROR_403);
+        DEFAULT_DROP_STATUS_CODE_SET.add(429);
+        DEFAULT_DROP_STATUS_CODE_SET.add(503);
+        DEFAULT_DROP_STATUS_CODE_SET.add(Proxy.ERROR_BANNED);
+        DEFAULT_DROP_STATUS_CODE_SET.add(Proxy.ERROR_REQUEST_TIME_OUT);
+        DEFAULT_DROP_STATUS_CODE_SET.add(Proxy.ERROR_PROXY_TIME_OUT);
+        DEFAULT_DROP_STATUS_CODE_SET.add(Proxy.ERROR_SOCKET_READ_TIME_OUT);
+    }
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private volatile int limit;
+
+    /**
+     * limit with fraction of additive increase
+     */
+    private double estimatedLimit;
+
+    private long lastCutTime;
+
+    private double backoffRatio = 0.9;
+
+    private long latencyThreshold = 0;
+
+    private Set<Integer> dropStatusCodes = DEFAULT_DROP_STATUS_CODE_SET;
+
+    /**
+     * @param initialLimit limit at start
+     * @param minLimit limit never goes below it
+     * @param maxLimit limit never goes above it, the threadNum of pool is used when it is larger
+     */
+    public AimdConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("limit should be 0 < minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        this.estimatedLimit = limit;
+    }
+
+    /**
+     * Record a finished request.
+     *
+     * @param latency time used by request in ms
+     * @param statusCode status code of request, may be null
+     * @param inFlight requests in flight when the request finished
+     */
+    public synchronized void onSample(long latency, Integer statusCode, int inFlight) {
+        long now = System.currentTimeMillis();
+        if (isDropped(latency, statusCode)) {
+            //上次削减之前发出的request反映的是削减前的并发,忽略
+            if (now - latency <= lastCutTime) {
+                return;
+            }
+            estimatedLimit = Math.max(minLimit, Math.min(limit - 1, Math.floor(limit * backoffRatio)));
+            lastCutTime = now;
+        } else if (inFlight * 2 >= limit) {
+            estimatedLimit = Math.min(maxLimit, estimatedLimit + 1.0 / estimatedLimit);
+        }
+        limit = (int) estimatedLimit;
+    }
+
+    protected boolean isDropped(long latency, Integer statusCode) {
+        if (statusCode != null && dropStatusCodes.contains(statusCode)) {
+            return true;
+        }
+        return latencyThreshold > 0 && latency > latencyThreshold;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Set ratio the limit is multiplied by on drop, 0.9 by default.
+     *
+     * @param backoffRatio between 0.5 and 1
+     * @return this
+     */
+    public AimdConcurrencyLimit setBackoffRatio(double backoffRatio) {
+        if (backoffRatio < 0.5 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio should be in [0.5, 1)");
+        }
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Requests slower than latencyThreshold are treated as drop, 0 for disabled.
+     *
+     * @param latencyThreshold in ms
+     * @return this
+     */
+    public AimdConcurrencyLimit setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+        return this;
+    }
+
+    /**
+     * Set status codes treated as drop.<br></br>
+     * 403, 429, 503, {@link Proxy#ERROR_BANNED} and timeouts by default.
+     *
+     * @param dropStatusCodes
+     * @return this
+     */
+    public AimdConcurrencyLimit setDropStatusCodes(Integer... dropStatusCodes) {
+        Set<Integer> codes = new HashSet<Integer>();
+        for (Integer code : dropStatusCodes) {
+            codes.add(code);
+        }
+        this.dropStatusCodes = codes;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "AimdConcurrencyLimit{" +
+                "limit=" + limit +
+                ", minLimit=" + minLimit +
+                ", maxLimit=" + maxLimit +
+                '}';
+    }
+}
@@ -1,23 +1,36 @@
 package us.codecraft.webmagic.thread;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Thread pool for workers.<br></br>
  * Use {@link java.util.concurrent.ExecutorService} as inner implement. <br></br>
  * New feature: <br></br>
  * 1. Block when thread pool is full to avoid poll many urls without process. <br></br>
- * 2. Count of thread alive for monitor.
+ * 2. Count of thread alive for monitor. <br></br>
+ * 3. Run each task on a virtual thread, where threadNum only limits tasks in flight. <br></br>
+ * 4. Adjust the limit of tasks in flight by latency and status code with {@link AimdConcurrencyLimit}. <br></br>
  *
  * @author code4crafer@gmail.com
  * @since 0.5.0
  */
 public class CountableThreadPool {
 
+    private static final Logger logger = LoggerFactory.getLogger(CountableThreadPool.class);
+
     private int threadNum;
 
     private AtomicInteger threadAlive = new AtomicInteger();
@@ -26,6 +39,8 @@ public class CountableThreadPool {
 
     private Condition condition = reentrantLock.newCondition();
 
+    private volatile AimdConcurrencyLimit concurrencyLimit;
+
     public CountableThreadPool(int threadNum) {
         this.threadNum = threadNum;
         this.executorService = Executors.newFixedThreadPool(threadNum);
@@ -36,6 +51,72 @@ public class CountableThreadPool {
         this.executorService = executorService;
     }
 
+    /**
+     * Create a pool which runs each task on a new virtual thread.<br></br>
+     * threadNum is only the limit of tasks in flight and is not tied to OS threads.<br></br>
+     *
+     * @param threadNum max tasks in flight
+     * @return thread pool
+     * @throws UnsupportedOperationException if virtual threads are not supported, they need Java 21+
+     */
+    public static CountableThreadPool newVirtualThreadPool(int threadNum) {
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+        if (executorService == null) {
+            throw new UnsupportedOperationException("virtual threads are not supported before Java 21");
+        }
+        return new CountableThreadPool(threadNum, executorService);
+    }
+
+    /**
+     * Create a pool which runs each task on a new virtual thread, or on a fixed pool of threadNum platform threads
+     * created by fallbackThreadFactory when virtual threads are not supported.<br></br>
+     * Only use it when threadNum platform threads are affordable, a warning is logged on fallback.
+     *
+     * @param threadNum max tasks in flight
+     * @param fallbackThreadFactory thread factory used when virtual threads are not supported
+     * @return thread pool
+     */
+    public static CountableThreadPool newVirtualThreadPool(int threadNum, ThreadFactory fallbackThreadFactory) {
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+        if (executorService == null) {
+            logger.warn("virtual threads are not supported before Java 21, fall back to {} platform threads", threadNum);
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threadNum, threadNum, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), fallbackThreadFactory);
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            executorService = threadPoolExecutor;
+        }
+        return new CountableThreadPool(threadNum, executorService);
+    }
+
+    /**
+     * Whether virtual threads are supported by current JVM.
+     *
+     * @return true if supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        return getVirtualThreadPerTaskExecutorMethod() != null;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method method = getVirtualThreadPerTaskExecutorMethod();
+        if (method == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Method getVirtualThreadPerTaskExecutorMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     public void setExecutorService(ExecutorService executorService) {
         this.executorService = executorService;
     }
@@ -48,15 +129,77 @@ public class CountableThreadPool {
         return threadNum;
     }
 
+    /**
+     * Get current limit of tasks alive, which is threadNum unless an adaptive limit is set.
+     *
+     * @return limit of tasks alive
+     */
+    public int getLimit() {
+        AimdConcurrencyLimit concurrencyLimit = this.concurrencyLimit;
+        if (concurrencyLimit == null) {
+            return threadNum;
+        }
+        return Math.min(threadNum, concurrencyLimit.getLimit());
+    }
+
+    public AimdConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Set an adaptive limit of tasks alive, which never goes above threadNum.
+     *
+     * @param concurrencyLimit null for fixed threadNum
+     */
+    public void setConcurrencyLimit(AimdConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        signalAll();
+    }
+
+    /**
+     * Feed the adaptive limit with a finished request.
+     *
+     * @param latency time used by request in ms
+     * @param statusCode status code of request, may be null
+     */
+    public void onRequestComplete(long latency, Integer statusCode) {
+        AimdConcurrencyLimit concurrencyLimit = this.concurrencyLimit;
+        if (concurrencyLimit == null) {
+            return;
+        }
+        int oldLimit = concurrencyLimit.getLimit();
+        concurrencyLimit.onSample(latency, statusCode, getThreadAlive());
+        if (concurrencyLimit.getLimit() > oldLimit) {
+            signalAll();
+        }
+    }
+
+    protected void signalAll() {
+        try {
+            reentrantLock.lock();
+            condition.signalAll();
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
     private ExecutorService executorService;
 
     public void execute(final Runnable runnable) {
+        acquire();
+        executeAcquired(runnable);
+    }
 
-
-        if (threadAlive.get() >= threadNum) {
+    /**
+     * Wait for a free slot and count it as alive.<br></br>
+     * The slot must be freed by {@link #release()}, or passed to {@link #executeAcquired(Runnable)}.
+     * It is used to hold a slot while the task is waiting for something out of this pool, such as async downloading.
+     */
+    public void acquire() {
+        if (threadAlive.get() >= getLimit()) {
             try {
                 reentrantLock.lock();
-                while (threadAlive.get() >= threadNum) {
+                while (threadAlive.get() >= getLimit()) {
                     try {
                         condition.await();
                     } catch (InterruptedException e) {
@@ -67,22 +210,42 @@ public class CountableThreadPool {
             }
         }
         threadAlive.incrementAndGet();
-        executorService.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    runnable.run();
-                } finally {
+    }
+
+    /**
+     * Run a task in the slot taken by {@link #acquire()}, the slot is released when the task is over.
+     *
+     * @param runnable
+     */
+    public void executeAcquired(final Runnable runnable) {
+        try {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        reentrantLock.lock();
-                        threadAlive.decrementAndGet();
-                        condition.signal();
+                        runnable.run();
                     } finally {
-                        reentrantLock.unlock();
+                        release();
                     }
                 }
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Free a slot taken by {@link #acquire()}.
+     */
+    public void release() {
+        try {
+            reentrantLock.lock();
+            threadAlive.decrementAndGet();
+            condition.signal();
+        } finally {
+            reentrantLock.unlock();
+        }
     }
 
     public boolean isShutdown() {
@@ -0,0 +1,98 @@
+package us.codecraft.webmagic.thread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counter of requests polled from scheduler but not finished yet, shared by spider and its workers.<br></br>
+ * Every push to scheduler and every finished request changes the version of counter and wakes up waiters,
+ * so that spider polls again or exits as soon as the frontier or the in-flight set changes. <br></br>
+ * Waiters pass the version read before polling to {@link #await(long, long)}, so no change is missed
+ * between an empty poll and the wait.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class InFlightCounter {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private volatile long version;
+
+    private volatile int inFlight;
+
+    /**
+     * A request is polled and in flight.
+     */
+    public void increment() {
+        lock.lock();
+        try {
+            inFlight++;
+            version++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A request in flight is finished, all requests it spawned must be pushed before.
+     */
+    public void decrement() {
+        lock.lock();
+        try {
+            inFlight--;
+            version++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Something is pushed to scheduler.
+     */
+    public void signal() {
+        lock.lock();
+        try {
+            version++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the version is changed from the given one.
+     *
+     * @param version version read before polling
+     * @param timeout max time to wait in ms
+     * @return true if changed
+     * @throws InterruptedException
+     */
+    public boolean await(long version, long timeout) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            while (this.version == version) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int get() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,226 @@
+package us.codecraft.webmagic.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import us.codecraft.webmagic.downloader.HttpClientDownloader;
+import us.codecraft.webmagic.downloader.HttpClientGenerator;
+
+/**
+ * Runtime shared by many spiders, such as clones of one spider.<br></br>
+ * It owns one worker pool and one http connection pool, and each registered spider is a tenant
+ * with a weight. <br></br>
+ * A tenant is guaranteed a share of slots by weight, and may borrow slots left unused by other tenants,
+ * unless another tenant below its share is waiting for them. <br></br>
+ * Tenants are identified by {@link us.codecraft.webmagic.Task#getUUID()}.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ * @see us.codecraft.webmagic.Spider#setRuntime(SharedCrawlRuntime, int)
+ */
+public class SharedCrawlRuntime {
+
+    private final int threadNum;
+
+    private final ExecutorService executorService;
+
+    private final HttpClientDownloader downloader;
+
+    private final Map<String, TenantThreadPool> tenants = new ConcurrentHashMap<String, TenantThreadPool>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition slotReleased = lock.newCondition();
+
+    private int threadAlive;
+
+    /**
+     * @param threadNum threads of the worker pool, also the size of the connection pool
+     */
+    public SharedCrawlRuntime(final int threadNum) {
+        if (threadNum <= 0) {
+            throw new IllegalArgumentException("threadNum should be more than one!");
+        }
+        this.threadNum = threadNum;
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threadNum, threadNum, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "crawl-runtime-thread-" + threadNumber.getAndIncrement());
+            }
+        });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executorService = threadPoolExecutor;
+        this.downloader = new HttpClientDownloader(new HttpClientGenerator().setPoolSize(threadNum)) {
+            @Override
+            public void setThread(int thread) {
+                //连接池大小由runtime决定,忽略各tenant的设置
+            }
+        };
+    }
+
+    /**
+     * Register a tenant.
+     *
+     * @param uuid uuid of task
+     * @param weight weight of tenant for sharing slots
+     * @return thread pool of tenant
+     */
+    public TenantThreadPool register(String uuid, int weight) {
+        return register(uuid, weight, threadNum);
+    }
+
+    /**
+     * Register a tenant.
+     *
+     * @param uuid uuid of task
+     * @param weight weight of tenant for sharing slots
+     * @param quota max slots the tenant can use, even if others are idle
+     * @return thread pool of tenant
+     */
+    public TenantThreadPool register(String uuid, int weight, int quota) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight should be more than one!");
+        }
+        lock.lock();
+        try {
+            if (tenants.containsKey(uuid)) {
+                throw new IllegalStateException("Task " + uuid + " is already registered!");
+            }
+            TenantThreadPool tenant = new TenantThreadPool(this, uuid, weight, Math.min(quota, threadNum), executorService);
+            tenants.put(uuid, tenant);
+            updateShares();
+            return tenant;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unregister(TenantThreadPool tenant) {
+        lock.lock();
+        try {
+            if (tenants.get(tenant.getUUID()) == tenant) {
+                tenants.remove(tenant.getUUID());
+                updateShares();
+                slotReleased.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateShares() {
+        int totalWeight = 0;
+        for (TenantThreadPool tenant : tenants.values()) {
+            totalWeight += tenant.getWeight();
+        }
+        for (TenantThreadPool tenant : tenants.values()) {
+            tenant.setShare(Math.max(1, (int) ((long) threadNum * tenant.getWeight() / totalWeight)));
+        }
+    }
+
+    void acquire(TenantThreadPool tenant) {
+        lock.lock();
+        try {
+            tenant.waiting++;
+            try {
+                while (!canAcquire(tenant)) {
+                    slotReleased.awaitUninterruptibly();
+                }
+            } finally {
+                tenant.waiting--;
+            }
+            tenant.alive++;
+            threadAlive++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(TenantThreadPool tenant) {
+        lock.lock();
+        try {
+            tenant.alive--;
+            tenant.completed++;
+            threadAlive--;
+            slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wake up tenants waiting for slots, called when the limit of a tenant is raised.
+     */
+    void signalAll() {
+        lock.lock();
+        try {
+            slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAcquire(TenantThreadPool tenant) {
+        if (threadAlive >= threadNum || tenant.alive >= tenant.getLimit()) {
+            return false;
+        }
+        if (tenant.alive < tenant.getShare()) {
+            return true;
+        }
+        //借用空闲的slot时,为其他在等待且未用满份额的tenant保留
+        int reserved = 0;
+        for (TenantThreadPool other : tenants.values()) {
+            if (other != tenant && other.waiting > 0 && other.alive < other.getShare()) {
+                reserved += other.getShare() - other.alive;
+            }
+        }
+        return threadAlive + reserved < threadNum;
+    }
+
+    /**
+     * Get the downloader sharing one connection pool, which should be set to all tenants.
+     *
+     * @return downloader
+     */
+    public HttpClientDownloader getDownloader() {
+        return downloader;
+    }
+
+    public TenantThreadPool getTenant(String uuid) {
+        return tenants.get(uuid);
+    }
+
+    public List<TenantThreadPool> getTenants() {
+        return new ArrayList<TenantThreadPool>(tenants.values());
+    }
+
+    public int getThreadNum() {
+        return threadNum;
+    }
+
+    public int getThreadAlive() {
+        lock.lock();
+        try {
+            return threadAlive;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+}
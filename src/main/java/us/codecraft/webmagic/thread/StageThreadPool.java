@@ -0,0 +1,231 @@
+package us.codecraft.webmagic.thread;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread pool for one stage of crawling, such as download, process or pipeline.<br></br>
+ * Tasks are handed off to the stage through a bounded queue. <br></br>
+ * When the queue is full, {@link #execute(Runnable)} blocks the caller, so a slow stage slows down
+ * the former stages instead of piling up pages in memory. <br></br>
+ * With {@link AimdConcurrencyLimit}, {@link #execute(Runnable)} also blocks while the tasks alive reach the limit,
+ * which is used to adapt concurrent downloads of the download stage.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class StageThreadPool {
+
+    private final String name;
+
+    private final int threadNum;
+
+    private final int queueCapacity;
+
+    private final Semaphore permits;
+
+    private final AtomicInteger alive = new AtomicInteger();
+
+    private final ThreadPoolExecutor executorService;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition taskFinished = lock.newCondition();
+
+    private volatile AimdConcurrencyLimit concurrencyLimit;
+
+    /**
+     * @param name name of stage
+     * @param threadNum threads of stage
+     * @param queueCapacity max tasks waiting for a thread of the stage
+     * @param threadFactory
+     */
+    public StageThreadPool(String name, int threadNum, int queueCapacity, ThreadFactory threadFactory) {
+        if (threadNum <= 0) {
+            throw new IllegalArgumentException("threadNum of stage " + name + " should be more than one!");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity of stage " + name + " should not be negative!");
+        }
+        this.name = name;
+        this.threadNum = threadNum;
+        this.queueCapacity = queueCapacity;
+        this.permits = new Semaphore(threadNum + queueCapacity);
+        this.executorService = new ThreadPoolExecutor(threadNum, threadNum, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        this.executorService.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a task in this stage, block when the queue of stage is full.
+     *
+     * @param runnable
+     */
+    public void execute(Runnable runnable) {
+        permits.acquireUninterruptibly();
+        if (concurrencyLimit != null) {
+            awaitLimit();
+        }
+        submit(runnable, true);
+    }
+
+    private void awaitLimit() {
+        lock.lock();
+        try {
+            while (alive.get() >= getLimit()) {
+                taskFinished.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalAll() {
+        lock.lock();
+        try {
+            taskFinished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run a task in this stage without waiting for the queue.<br></br>
+     * Used when a later stage hands a task back to a former stage, which would dead lock if both queues are full.
+     *
+     * @param runnable
+     */
+    public void executeWithoutWait(Runnable runnable) {
+        submit(runnable, false);
+    }
+
+    private void submit(final Runnable runnable, final boolean releasePermit) {
+        alive.incrementAndGet();
+        try {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        alive.decrementAndGet();
+                        if (releasePermit) {
+                            permits.release();
+                        }
+                        if (concurrencyLimit != null) {
+                            signalAll();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            alive.decrementAndGet();
+            if (releasePermit) {
+                permits.release();
+            }
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreadNum() {
+        return threadNum;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Get count of tasks waiting for a thread.
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return executorService.getQueue().size();
+    }
+
+    /**
+     * Get count of tasks running or waiting in this stage.
+     *
+     * @return task count
+     */
+    public int getTaskAlive() {
+        return alive.get();
+    }
+
+    /**
+     * Get current limit of tasks alive for {@link #execute(Runnable)}, which is threadNum plus queueCapacity
+     * unless an adaptive limit is set.
+     *
+     * @return limit of tasks alive
+     */
+    public int getLimit() {
+        AimdConcurrencyLimit concurrencyLimit = this.concurrencyLimit;
+        if (concurrencyLimit == null) {
+            return threadNum + queueCapacity;
+        }
+        return Math.min(threadNum, concurrencyLimit.getLimit());
+    }
+
+    public AimdConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Set an adaptive limit of tasks alive, which never goes above threadNum.
+     *
+     * @param concurrencyLimit null for no limit but the queue
+     */
+    public void setConcurrencyLimit(AimdConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        signalAll();
+    }
+
+    /**
+     * Feed the adaptive limit with a finished request.
+     *
+     * @param latency time used by request in ms
+     * @param statusCode status code of request, may be null
+     */
+    public void onRequestComplete(long latency, Integer statusCode) {
+        AimdConcurrencyLimit concurrencyLimit = this.concurrencyLimit;
+        if (concurrencyLimit == null) {
+            return;
+        }
+        int oldLimit = concurrencyLimit.getLimit();
+        concurrencyLimit.onSample(latency, statusCode, getTaskAlive());
+        if (concurrencyLimit.getLimit() > oldLimit) {
+            signalAll();
+        }
+    }
+
+    public boolean isShutdown() {
+        return executorService.isShutdown();
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "StageThreadPool{" +
+                "name='" + name + '\'' +
+                ", threadNum=" + threadNum +
+                ", queueCapacity=" + queueCapacity +
+                ", queueDepth=" + getQueueDepth() +
+                ", taskAlive=" + getTaskAlive() +
+                '}';
+    }
+}
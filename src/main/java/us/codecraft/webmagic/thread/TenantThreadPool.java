@@ -0,0 +1,121 @@
+package us.codecraft.webmagic.thread;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Thread pool of one tenant in {@link SharedCrawlRuntime}.<br></br>
+ * Tasks run on the worker pool of runtime, and slots are granted by runtime by the weight of tenant. <br></br>
+ * Shutdown only unregisters the tenant, the worker pool is shut down by {@link SharedCrawlRuntime#shutdown()}.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class TenantThreadPool extends CountableThreadPool {
+
+    private final SharedCrawlRuntime runtime;
+
+    private final String uuid;
+
+    private final int weight;
+
+    private volatile int share;
+
+    private volatile boolean shutdown;
+
+    //以下计数由runtime在锁内修改
+    volatile int alive;
+
+    volatile int waiting;
+
+    volatile long completed;
+
+    TenantThreadPool(SharedCrawlRuntime runtime, String uuid, int weight, int quota, ExecutorService executorService) {
+        super(quota, executorService);
+        this.runtime = runtime;
+        this.uuid = uuid;
+        this.weight = weight;
+    }
+
+    @Override
+    public void acquire() {
+        runtime.acquire(this);
+    }
+
+    @Override
+    public void release() {
+        runtime.release(this);
+    }
+
+    @Override
+    protected void signalAll() {
+        runtime.signalAll();
+    }
+
+    @Override
+    public int getThreadAlive() {
+        return alive;
+    }
+
+    public String getUUID() {
+        return uuid;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Get slots guaranteed to this tenant.
+     *
+     * @return share of slots
+     */
+    public int getShare() {
+        return share;
+    }
+
+    void setShare(int share) {
+        this.share = share;
+    }
+
+    /**
+     * Get count of threads waiting for a slot.
+     *
+     * @return waiting count
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Get count of tasks finished.
+     *
+     * @return completed count
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        runtime.unregister(this);
+    }
+
+    @Override
+    public String toString() {
+        return "TenantThreadPool{" +
+                "uuid='" + uuid + '\'' +
+                ", weight=" + weight +
+                ", share=" + share +
+                ", quota=" + getThreadNum() +
+                ", alive=" + alive +
+                ", waiting=" + waiting +
+                ", completed=" + completed +
+                '}';
+    }
+}
@@ -0,0 +1,463 @@
+package us.codecraft.webmagic.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import us.codecraft.webmagic.Request;
+
+/**
+ * Compact binary codec of {@link Request}, used wherever requests are persisted, instead of java serialization.<br>
+ * Numbers are varint encoded, and header names and extra keys are written once and then referred to by index,
+ * from a built-in dictionary of common names and a dictionary growing along the stream.
+ * Requests encoded one by one have no stream dictionary, so the extra keys schedulers put in every request are built in. <br>
+ * Extras of proxy and statusful connection are dropped for they are only valid in this process,
+ * other extra values than String, Integer, Long, Boolean and Double fall back to java serialization.
+ *
+ * @author code4crafer@gmail.com
+ * @since 0.5.3
+ */
+public class RequestCodec {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = new byte[]{'W', 'M', 'R', 'Q'};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] BUILTIN_NAMES = new String[]{
+            Request.CYCLE_TRIED_TIMES, Request.STATUS_CODE, Request.STATUSFUL_CONN_CODE, Request.BIZCODE,
+            Request.MATCH_ERR_MSG, Request.HOST, Request.CHAIN_CONTINUATION,
+            "User-Agent", "Referer", "Cookie", "Accept", "Accept-Encoding", "Accept-Language",
+            "Content-Type", "Authorization", "Origin", "X-Requested-With", "Connection", "Cache-Control",
+            Request.PUSH_TIME, Request.WAL_ID, Request.NOT_BEFORE, "nameValuePair"
+    };
+
+    private static final int HAS_METHOD = 1;
+    private static final int HAS_FIELD_RULE_ID = 1 << 1;
+    private static final int HAS_EXTRAS = 1 << 2;
+    private static final int HAS_INHERIT_FIELDS = 1 << 3;
+    private static final int HAS_HEADERS = 1 << 4;
+    private static final int HAS_NEXT_REQUEST = 1 << 5;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_TRUE = 4;
+    private static final int TYPE_FALSE = 5;
+    private static final int TYPE_DOUBLE = 6;
+    private static final int TYPE_SERIALIZED = 7;
+
+    private RequestCodec() {
+    }
+
+    /**
+     * Encode one request with its own dictionary.
+     *
+     * @param request
+     * @return bytes
+     * @throws IOException if an extra value can not be serialized
+     */
+    public static byte[] encode(Request request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        bytes.write(VERSION);
+        new Writer(bytes).writeRequest(request);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode one request encoded by {@link #encode(Request)}.
+     *
+     * @param bytes
+     * @return request
+     * @throws IOException
+     */
+    public static Request decode(byte[] bytes) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        checkVersion(in.read());
+        return new Reader(in).readRequest();
+    }
+
+    private static void checkVersion(int version) throws IOException {
+        if (version != VERSION) {
+            throw new IOException("unsupported request codec version " + version);
+        }
+    }
+
+    /**
+     * Write requests to a stream, sharing one dictionary.
+     */
+    public static class Encoder {
+
+        private final OutputStream out;
+
+        private final Writer writer;
+
+        public Encoder(OutputStream out) throws IOException {
+            this.out = out;
+            this.writer = new Writer(out);
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+
+        public void write(Request request) throws IOException {
+            writer.writeRequest(request);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Read requests written by {@link Encoder}.
+     */
+    public static class Decoder {
+
+        private final Reader reader;
+
+        public Decoder(InputStream in) throws IOException {
+            for (byte b : MAGIC) {
+                if (in.read() != b) {
+                    throw new IOException("not a request stream");
+                }
+            }
+            checkVersion(in.read());
+            this.reader = new Reader(in);
+        }
+
+        /**
+         * Read next request.
+         *
+         * @return request, or null at the end of stream
+         * @throws IOException
+         */
+        public Request read() throws IOException {
+            return reader.readRequestOrNull();
+        }
+    }
+
+    private static class Writer {
+
+        private final OutputStream out;
+
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        private Writer(OutputStream out) {
+            this.out = out;
+            for (String name : BUILTIN_NAMES) {
+                dictionary.put(name, dictionary.size());
+            }
+        }
+
+        private void writeRequest(Request request) throws IOException {
+            Map<String, Object> extras = localExtrasRemoved(request.getExtras());
+            int flags = 0;
+            if (request.getMethod() != null) {
+                flags |= HAS_METHOD;
+            }
+            if (request.getFieldRuleId() != null) {
+                flags |= HAS_FIELD_RULE_ID;
+            }
+            if (extras != null && !extras.isEmpty()) {
+                flags |= HAS_EXTRAS;
+            }
+            if (request.getInheritFields() != null && !request.getInheritFields().isEmpty()) {
+                flags |= HAS_INHERIT_FIELDS;
+            }
+            if (request.getHeaders() != null && !request.getHeaders().isEmpty()) {
+                flags |= HAS_HEADERS;
+            }
+            if (request.getNextRequest() != null) {
+                flags |= HAS_NEXT_REQUEST;
+            }
+            writeVarLong(flags);
+            writeLiteral(request.getUrl());
+            writeVarLong(zigZag(request.getPriority()));
+            if (request.getMethod() != null) {
+                writeName(request.getMethod());
+            }
+            if (request.getFieldRuleId() != null) {
+                writeVarLong(zigZag(request.getFieldRuleId()));
+            }
+            if ((flags & HAS_EXTRAS) != 0) {
+                writeValues(extras);
+            }
+            if ((flags & HAS_INHERIT_FIELDS) != 0) {
+                writeValues(request.getInheritFields());
+            }
+            if ((flags & HAS_HEADERS) != 0) {
+                writeVarLong(request.getHeaders().size());
+                for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+                    writeName(entry.getKey());
+                    writeLiteral(entry.getValue());
+                }
+            }
+            if (request.getNextRequest() != null) {
+                writeRequest(request.getNextRequest());
+            }
+        }
+
+        private Map<String, Object> localExtrasRemoved(Map<String, Object> extras) {
+            if (extras == null || (!extras.containsKey(Request.PROXY) && !extras.containsKey(Request.STATUSFUL_CONN))) {
+                return extras;
+            }
+            Map<String, Object> copy = new HashMap<String, Object>(extras);
+            copy.remove(Request.PROXY);
+            copy.remove(Request.STATUSFUL_CONN);
+            return copy;
+        }
+
+        private void writeValues(Map<String, Object> values) throws IOException {
+            writeVarLong(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                writeName(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.write(TYPE_NULL);
+            } else if (value instanceof String) {
+                out.write(TYPE_STRING);
+                writeLiteral((String) value);
+            } else if (value instanceof Integer) {
+                out.write(TYPE_INT);
+                writeVarLong(zigZag((Integer) value));
+            } else if (value instanceof Long) {
+                out.write(TYPE_LONG);
+                writeVarLong(zigZag((Long) value));
+            } else if (value instanceof Boolean) {
+                out.write((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else if (value instanceof Double) {
+                out.write(TYPE_DOUBLE);
+                long bits = Double.doubleToLongBits((Double) value);
+                for (int i = 56; i >= 0; i -= 8) {
+                    out.write((int) (bits >>> i));
+                }
+            } else if (value instanceof Serializable) {
+                out.write(TYPE_SERIALIZED);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream os = new ObjectOutputStream(bytes);
+                os.writeObject(value);
+                os.close();
+                writeVarLong(bytes.size());
+                bytes.writeTo(out);
+            } else {
+                throw new IOException("can not encode value of " + value.getClass());
+            }
+        }
+
+        /**
+         * 名字第一次出现时写入原文并加入字典,之后只写序号
+         */
+        private void writeName(String name) throws IOException {
+            Integer index = dictionary.get(name);
+            if (index != null) {
+                writeVarLong(((long) index << 1) | 1);
+                return;
+            }
+            byte[] bytes = name.getBytes(UTF_8);
+            writeVarLong((long) bytes.length << 1);
+            out.write(bytes);
+            dictionary.put(name, dictionary.size());
+        }
+
+        private void writeLiteral(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarLong(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+
+    private static class Reader {
+
+        private final InputStream in;
+
+        private final List<String> dictionary = new ArrayList<String>();
+
+        private Reader(InputStream in) {
+            this.in = in;
+            for (String name : BUILTIN_NAMES) {
+                dictionary.add(name);
+            }
+        }
+
+        private Request readRequestOrNull() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            return readRequest(readVarLong(first));
+        }
+
+        private Request readRequest() throws IOException {
+            return readRequest(readVarLong(readByte()));
+        }
+
+        private Request readRequest(long flags) throws IOException {
+            Request request = new Request(readLiteral());
+            request.setPriority(unZigZag(readVarLong(readByte())));
+            if ((flags & HAS_METHOD) != 0) {
+                request.setMethod(readName());
+            }
+            if ((flags & HAS_FIELD_RULE_ID) != 0) {
+                request.setFieldRuleId((int) unZigZag(readVarLong(readByte())));
+            }
+            if ((flags & HAS_EXTRAS) != 0) {
+                request.setExtras(readValues());
+            }
+            if ((flags & HAS_INHERIT_FIELDS) != 0) {
+                request.setInheritFields(readValues());
+            }
+            if ((flags & HAS_HEADERS) != 0) {
+                int size = (int) readVarLong(readByte());
+                Map<String, String> headers = new LinkedHashMap<String, String>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    headers.put(readName(), readLiteral());
+                }
+                request.setHeaders(headers);
+            }
+            if ((flags & HAS_NEXT_REQUEST) != 0) {
+                request.setNextRequest(readRequest());
+            }
+            return request;
+        }
+
+        private Map<String, Object> readValues() throws IOException {
+            int size = (int) readVarLong(readByte());
+            Map<String, Object> values = new HashMap<String, Object>(size * 2);
+            for (int i = 0; i < size; i++) {
+                values.put(readName(), readValue());
+            }
+            return values;
+        }
+
+        private Object readValue() throws IOException {
+            int type = readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    return readLiteral();
+                case TYPE_INT:
+                    return (int) unZigZag(readVarLong(readByte()));
+                case TYPE_LONG:
+                    return unZigZag(readVarLong(readByte()));
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                case TYPE_DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | readByte();
+                    }
+                    return Double.longBitsToDouble(bits);
+                case TYPE_SERIALIZED:
+                    ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(readBytes((int) readVarLong(readByte()))));
+                    try {
+                        return is.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    } finally {
+                        is.close();
+                    }
+                default:
+                    throw new IOException("invalid value type " + type);
+            }
+        }
+
+        private String readName() throws IOException {
+            long tag = readVarLong(readByte());
+            if ((tag & 1) != 0) {
+                int index = (int) (tag >>> 1);
+                if (index >= dictionary.size()) {
+                    throw new IOException("invalid name index " + index);
+                }
+                return dictionary.get(index);
+            }
+            String name = new String(readBytes((int) (tag >>> 1)), UTF_8);
+            dictionary.add(name);
+            return name;
+        }
+
+        private String readLiteral() throws IOException {
+            long length = readVarLong(readByte());
+            if (length == 0) {
+                return null;
+            }
+            return new String(readBytes((int) (length - 1)), UTF_8);
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = in.read(bytes, offset, length - offset);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+            return bytes;
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private long readVarLong(int first) throws IOException {
+            long value = first & 0x7F;
+            int shift = 7;
+            int b = first;
+            while ((b & 0x80) != 0) {
+                if (shift > 63) {
+                    throw new IOException("malformed varint");
+                }
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            }
+            return value;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}